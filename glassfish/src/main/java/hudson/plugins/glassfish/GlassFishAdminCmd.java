@@ -38,6 +38,7 @@ package hudson.plugins.glassfish;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import hudson.EnvVars;
 
 /**
@@ -132,20 +133,26 @@ public class GlassFishAdminCmd {
             return false;
         }
 
-        for (String key : gfc.clusterMap.keySet()) {
-            GlassFishInstance gfi = gfc.clusterMap.get(key);
-            CMD = " --host " + gfc.getDasNodeName() + " --port " + gfc.getDasAdminPort()
+        // the cluster exists on DAS now, so the instances can be created in parallel.
+        // the runner limits the commands running on each node, without holding up the other nodes
+        ArrayList<GlassFishTaskRunner.Task> tasks = new ArrayList<GlassFishTaskRunner.Task>();
+        for (final String key : gfc.clusterMap.keySet()) {
+            final GlassFishInstance gfi = gfc.clusterMap.get(key);
+            final String createCmd = " --host " + gfc.getDasNodeName() + " --port " + gfc.getDasAdminPort()
                     + " create-local-instance --cluster "
                     + gfbuilder.getClusterName()
                     + " --systemproperties " + gfi.getPortList()
                     + ":instance_name=" + key + " "
                     + key;
+            tasks.add(new GlassFishTaskRunner.Task(key, gfi.getClusterNode()) {
 
-            if (!execAdminCommand(gfi.getClusterNode(), CMD)) {
-                return false;
-            }
+                boolean run(PrintStream out) {
+                    return execAdminCommand(gfi.getClusterNode(), createCmd, false, out);
+                }
+            });
         }
-        return true;
+
+        return GlassFishTaskRunner.allSucceeded(getTaskRunner().runAll(tasks, true));
     }
 
     public boolean startGFCluster() {
@@ -159,33 +166,45 @@ public class GlassFishAdminCmd {
                 return false;
             }
         }
-        
-        for (String key : gfc.clusterMap.keySet()) {
-            GlassFishInstance gfi = gfc.clusterMap.get(key);
-            CMD = " start-local-instance " + key;
-            if (!execAdminCommand(gfi.getClusterNode(), CMD, daemonProcess)) {
-                return false;
-            }
+
+        // start the instances in parallel, each instance output is captured separately
+        ArrayList<GlassFishTaskRunner.Task> tasks = new ArrayList<GlassFishTaskRunner.Task>();
+        for (final String key : gfc.clusterMap.keySet()) {
+            final GlassFishInstance gfi = gfc.clusterMap.get(key);
+            tasks.add(new GlassFishTaskRunner.Task(key, gfi.getClusterNode()) {
+
+                boolean run(PrintStream out) {
+                    return execAdminCommand(gfi.getClusterNode(), " start-local-instance " + key, daemonProcess, out);
+                }
+            });
         }
 
-        return true;
+        // abort the startup as soon as one of the instances fails to start
+        return GlassFishTaskRunner.allSucceeded(getTaskRunner().runAll(tasks, true));
+    }
+
+    GlassFishTaskRunner getTaskRunner() {
+        return new GlassFishTaskRunner(logger, gfbuilder.getMaxConcurrentTasks(), gfbuilder.getMaxConcurrentTasksPerNode());
     }
 
     // stop the cluster, delete all instances, delete the cluster, stop the domain
     public boolean stopGFCluster() {
 
-        String CMD;
-        boolean returnValue = true;
-
-        for (String key : gfc.clusterMap.keySet()) {
-            GlassFishInstance gfi = gfc.clusterMap.get(key);
-            CMD = " stop-local-instance " + key;
-            if (!execAdminCommand(gfi.getClusterNode(), CMD)) {
-                //continue, and try to stop other instances, even if this attempt failed
-                returnValue = false;
-            }
+        ArrayList<GlassFishTaskRunner.Task> tasks = new ArrayList<GlassFishTaskRunner.Task>();
+        for (final String key : gfc.clusterMap.keySet()) {
+            final GlassFishInstance gfi = gfc.clusterMap.get(key);
+            tasks.add(new GlassFishTaskRunner.Task(key, gfi.getClusterNode()) {
+
+                boolean run(PrintStream out) {
+                    return execAdminCommand(gfi.getClusterNode(), " stop-local-instance " + key, false, out);
+                }
+            });
         }
 
+        //continue, and try to stop other instances, even if some attempts failed.
+        //as for create, instances of an idle node don't wait behind those of a busy one
+        boolean returnValue = GlassFishTaskRunner.allSucceeded(getTaskRunner().runAll(tasks, false));
+
         // todo: optionally, delete-local-instance and delete-cluster
 
         if (!stopDomain()) {
@@ -208,6 +227,10 @@ public class GlassFishAdminCmd {
     }
 
     public boolean execAdminCommand(GlassFishClusterNode clusterNode, String cmd, boolean daemon) {
+        return execAdminCommand(clusterNode, cmd, daemon, logger);
+    }
+
+    public boolean execAdminCommand(GlassFishClusterNode clusterNode, String cmd, boolean daemon, PrintStream out) {
 
         EnvVars additionalEnvVars = null;
 
@@ -218,6 +241,6 @@ public class GlassFishAdminCmd {
 
             additionalEnvVars = new EnvVars(key, value);
         }
-        return (clusterNode.execCommand(additionalEnvVars, clusterNode.getInstaller().getAdminCmd() + " " + cmd));
+        return (clusterNode.execCommand(additionalEnvVars, clusterNode.getInstaller().getAdminCmd() + " " + cmd, out));
     }
 }
@@ -65,6 +65,10 @@ public class GlassFishBuilder extends Builder {
     private final boolean installGlassFish, createCluster, startCluster, stopCluster, deleteInstall;
     private String customInstanceText, shellCommand;
     private String nodeSelectionLabel, userTaskFilesURL;
+    // max number of nodes or instances processed in parallel
+    private String maxConcurrentTasksStr, maxConcurrentTasksPerNodeStr;
+    static final int DEFAULT_MAX_CONCURRENT_TASKS = 8;
+    static final int DEFAULT_MAX_CONCURRENT_TASKS_PER_NODE = 2;
 
     // Fields in config.jelly match the parameter names in the "DataBoundConstructor"
     @DataBoundConstructor
@@ -83,7 +87,9 @@ public class GlassFishBuilder extends Builder {
             String userTaskFilesURL,
             String shellCommand,
             boolean stopCluster,
-            boolean deleteInstall) {
+            boolean deleteInstall,
+            String maxConcurrentTasksStr,
+            String maxConcurrentTasksPerNodeStr) {
 
         this.zipBundleURL = zipBundleURL == null ? "" : zipBundleURL.trim();
 
@@ -111,6 +117,9 @@ public class GlassFishBuilder extends Builder {
         this.startCluster = startCluster;
         this.stopCluster = stopCluster;
         this.deleteInstall = deleteInstall;
+
+        this.maxConcurrentTasksStr = maxConcurrentTasksStr == null ? "" : maxConcurrentTasksStr.trim();
+        this.maxConcurrentTasksPerNodeStr = maxConcurrentTasksPerNodeStr == null ? "" : maxConcurrentTasksPerNodeStr.trim();
     }
 
     public boolean getInstallGlassFish() {
@@ -173,6 +182,35 @@ public class GlassFishBuilder extends Builder {
         return deleteInstall;
     }
 
+    public String getMaxConcurrentTasksStr() {
+        return maxConcurrentTasksStr;
+    }
+
+    // configurations saved before this option existed, or left blank, get the default
+    public int getMaxConcurrentTasks() {
+        return parsePositiveInt(maxConcurrentTasksStr, DEFAULT_MAX_CONCURRENT_TASKS);
+    }
+
+    public String getMaxConcurrentTasksPerNodeStr() {
+        return maxConcurrentTasksPerNodeStr;
+    }
+
+    public int getMaxConcurrentTasksPerNode() {
+        return parsePositiveInt(maxConcurrentTasksPerNodeStr, DEFAULT_MAX_CONCURRENT_TASKS_PER_NODE);
+    }
+
+    static int parsePositiveInt(String str, int defaultValue) {
+        if (str == null || str.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(str);
+            return value > 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public int getNumInstances() {
         try {
             return Integer.parseInt(clusterSize);
@@ -210,7 +248,14 @@ public class GlassFishBuilder extends Builder {
             return false;
         }
 
-        GlassFishCluster gfc = new GlassFishCluster(build, launcher, logger, listener, this, getNumNodes(), getBasePort(), getClusterName(), nodeSelectionLabel);
+        GlassFishCluster gfc;
+        try {
+            gfc = new GlassFishCluster(build, launcher, logger, listener, this, getNumNodes(), getBasePort(), getClusterName(), nodeSelectionLabel);
+        } catch (IOException e) {
+            e.printStackTrace(logger);
+            logger.println("ERROR: Couldn't set up the DAS node.");
+            return false;
+        }
         GlassFishAdminCmd admincmd = new GlassFishAdminCmd(build, launcher, logger, this, gfc);
 
         if (installGlassFish) {
@@ -225,15 +270,14 @@ public class GlassFishBuilder extends Builder {
 
             // First, install GlassFish on current computer (DAS node) only,
             // verify installation - print version number and make sure DAS can be started on this computer
-            if (!gfc.installGlassFishOnDasNode(zipBundleURL)) {
+            if (!gfc.installGlassFishOnDasNode(zipBundleURL, userTaskFilesURL)) {
                 logger.println("ERROR: GlassFish Install on DAS Node Failed.");
                 return false;
             }
 
-            // Copied over files pointed to by the URL,
-            // files ending with .zip are unzipped.
-            // This may also be used to patch the installation
-            // by overwriting the files installed in earlier step.
+            // Copied over files pointed to by the URL.
+            // Files ending with .zip were unzipped with the GlassFish bundle in the earlier step,
+            // this may also be used to patch the installation.
             if (!gfc.copyUserTaskFiles(userTaskFilesURL)) {
                 logger.println("ERROR: Failed to Copy User Task Files.");
                 return false;
@@ -0,0 +1,416 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 1997-2010 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package hudson.plugins.glassfish;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Per-node cache of the downloaded .zip bundles, kept under the node root directory.
+ * Entries are keyed by the bundle URL plus its ETag (or Last-Modified and length),
+ * so a bundle that hasn't changed on the server is downloaded only once per node.
+ * The cache size is bounded; least recently used entries are evicted first.
+ * The SHA-1 of each entry is recorded next to it when the entry is added, so that
+ * copies can be verified without reading the cached bundle again.
+ * The cache is shared by all the builds on the node, updates are done under a lock.
+ */
+final class GlassFishBundleCache {
+
+    static final String CACHE_DIR = "glassfish-bundle-cache";
+    // the cache is shared by all the jobs on a node, hence a system property rather than a job option.
+    // 0 disables the cache.
+    static final long MAX_SIZE = Long.getLong(GlassFishBundleCache.class.getName() + ".maxSizeMB", 2048) * 1024 * 1024;
+    // entries used within this period are never evicted, another build may still be unzipping them
+    static final long MIN_AGE = 60 * 60 * 1000L;
+    // suffix of the file holding the SHA-1 of the entry
+    static final String CHECKSUM_SUFFIX = ".sha1";
+    private final FilePath cacheDir;
+    private final PrintStream logger;
+
+    GlassFishBundleCache(Node node, PrintStream logger) {
+        FilePath rootPath = node.getRootPath();
+        this.cacheDir = (rootPath == null || MAX_SIZE <= 0) ? null : new FilePath(rootPath, CACHE_DIR);
+        this.logger = logger;
+    }
+
+    /**
+     * Get the cached copy of the bundle, downloading it into the cache first if required.
+     * @return null if the bundle can't be cached (cache disabled, or the server
+     *  provides neither ETag nor Last-Modified) - the caller should download it directly.
+     */
+    FilePath get(URL url) throws IOException, InterruptedException {
+        if (cacheDir == null) {
+            return null;
+        }
+        String entryName = getEntryName(url);
+        if (entryName == null) {
+            logger.println("Bundle cache: " + url + " has no ETag or Last-Modified, not cached");
+            return null;
+        }
+
+        FilePath entry = lookup(entryName);
+        if (entry != null) {
+            logger.println("Bundle cache: using cached " + new File(url.getPath()).getName());
+            return entry;
+        }
+
+        logger.println("Bundle cache: downloading " + url);
+        FilePath tmp = cacheDir.createTempFile(entryName, ".part");
+        try {
+            tmp.copyFrom(url);
+            return commit(tmp, entryName, tmp.act(new Checksum()));
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache entry and marks it as recently used, or null if it isn't cached.
+     */
+    FilePath lookup(String entryName) throws IOException, InterruptedException {
+        if (cacheDir == null || entryName == null) {
+            return null;
+        }
+        cacheDir.mkdirs();
+        return cacheDir.act(new Lookup(entryName)) ? new FilePath(cacheDir, entryName) : null;
+    }
+
+    /**
+     * Creates the file a download is written to before it is added to the cache by commit().
+     * @return null if the bundle can't be cached.
+     */
+    FilePath createPart(String entryName) throws IOException, InterruptedException {
+        if (cacheDir == null || entryName == null) {
+            return null;
+        }
+        cacheDir.mkdirs();
+        return cacheDir.createTempFile(entryName, ".part");
+    }
+
+    /**
+     * Adds a copy of the bundle from another node to the cache.
+     * The copy is verified against the checksum before it's made visible to other builds.
+     * @return the new entry, or null if the cache is disabled.
+     */
+    FilePath add(String entryName, FilePath source, String checksum) throws IOException, InterruptedException {
+        if (cacheDir == null || entryName == null) {
+            return null;
+        }
+        FilePath tmp = createPart(entryName);
+        try {
+            source.copyTo(tmp);
+            String copyChecksum = tmp.act(new Checksum());
+            if (!copyChecksum.equals(checksum)) {
+                throw new IOException("Checksum mismatch: " + tmp + " (" + copyChecksum + "), expected " + checksum);
+            }
+            return commit(tmp, entryName, checksum);
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * SHA-1 of the cache entry, as recorded when the entry was added.
+     */
+    String getChecksum(FilePath entry) throws IOException, InterruptedException {
+        return cacheDir.act(new GetChecksum(entry.getName()));
+    }
+
+    /**
+     * Moves the download into the cache, with the checksum of its contents.
+     * @return the cache entry
+     */
+    FilePath commit(FilePath tmp, String entryName, String checksum) throws IOException, InterruptedException {
+        String evicted = cacheDir.act(new Commit(tmp.getName(), entryName, checksum, MAX_SIZE));
+        if (evicted.length() > 0) {
+            logger.println("Bundle cache: evicted " + evicted);
+        }
+        return new FilePath(cacheDir, entryName);
+    }
+
+    /**
+     * Name of the cache entry for the bundle at the given URL.
+     * @return null if the server provides neither ETag nor Last-Modified for the URL.
+     */
+    static String getEntryName(URL url) throws IOException {
+        String validator = getValidator(url);
+        if (validator == null) {
+            return null;
+        }
+        return Util.getDigestOf(url.toExternalForm() + "\n" + validator) + "-" + new File(url.getPath()).getName();
+    }
+
+    /**
+     * Ask the server for the bundle ETag, or failing that Last-Modified and length.
+     * The bundle is downloaded by FilePath.copyFrom() on this computer, so the
+     * check is done from here as well.
+     */
+    static String getValidator(URL url) throws IOException {
+        URLConnection con = url.openConnection();
+        if (con instanceof HttpURLConnection) {
+            ((HttpURLConnection) con).setRequestMethod("HEAD");
+        }
+        try {
+            String etag = con.getHeaderField("ETag");
+            if (etag != null && !etag.startsWith("W/")) {
+                return etag;
+            }
+            long lastModified = con.getLastModified();
+            if (lastModified > 0) {
+                return lastModified + "/" + con.getContentLength();
+            }
+            return null;
+        } finally {
+            if (con instanceof HttpURLConnection) {
+                ((HttpURLConnection) con).disconnect();
+            } else {
+                // file: and jar: connections open the stream to read the headers
+                con.getInputStream().close();
+            }
+        }
+    }
+
+    /**
+     * SHA-1 of the file, computed on the node where the file is.
+     */
+    static final class Checksum implements FileCallable<String> {
+
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.toString());
+            }
+            InputStream in = new FileInputStream(f);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    md.update(buf, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+            return Util.toHexString(md.digest());
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Reads the recorded SHA-1 of the entry. Entries cached before the checksums
+     * were recorded get theirs computed and recorded now.
+     */
+    private static final class GetChecksum implements FileCallable<String> {
+
+        private final String entryName;
+
+        GetChecksum(String entryName) {
+            this.entryName = entryName;
+        }
+
+        public String invoke(File dir, VirtualChannel channel) throws IOException {
+            File f = new File(dir, entryName + CHECKSUM_SUFFIX);
+            if (f.isFile()) {
+                BufferedReader in = new BufferedReader(new FileReader(f));
+                try {
+                    String checksum = in.readLine();
+                    if (checksum != null && checksum.length() > 0) {
+                        return checksum.trim();
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            String checksum = new Checksum().invoke(new File(dir, entryName), channel);
+            writeChecksum(f, checksum);
+            return checksum;
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static void writeChecksum(File f, String checksum) throws IOException {
+        FileWriter out = new FileWriter(f);
+        try {
+            out.write(checksum);
+        } finally {
+            out.close();
+        }
+    }
+
+    // builds on the same node share the agent JVM, and FileLock is held per JVM,
+    // so the threads are serialized here and the processes by the lock file
+    private static final Object LOCK = new Object();
+
+    private static abstract class LockedCallable<T> implements FileCallable<T> {
+
+        public final T invoke(File dir, VirtualChannel channel) throws IOException {
+            synchronized (LOCK) {
+                RandomAccessFile lockFile = new RandomAccessFile(new File(dir, ".lock"), "rw");
+                try {
+                    FileLock lock = lockFile.getChannel().lock();
+                    try {
+                        return invokeLocked(dir);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                }
+            }
+        }
+
+        abstract T invokeLocked(File dir) throws IOException;
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Marks the entry as recently used. Returns false if there is no such entry.
+     */
+    private static final class Lookup extends LockedCallable<Boolean> {
+
+        private final String entryName;
+
+        Lookup(String entryName) {
+            this.entryName = entryName;
+        }
+
+        Boolean invokeLocked(File dir) {
+            File entry = new File(dir, entryName);
+            return entry.isFile() && entry.setLastModified(System.currentTimeMillis());
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Moves the downloaded file into place along with its checksum, unless a concurrent build already did,
+     * then evicts the least recently used entries over the size limit.
+     * Returns the names of the evicted entries.
+     */
+    private static final class Commit extends LockedCallable<String> {
+
+        private final String tmpName, entryName, checksum;
+        private final long maxSize;
+
+        Commit(String tmpName, String entryName, String checksum, long maxSize) {
+            this.tmpName = tmpName;
+            this.entryName = entryName;
+            this.checksum = checksum;
+            this.maxSize = maxSize;
+        }
+
+        String invokeLocked(File dir) throws IOException {
+            File tmp = new File(dir, tmpName);
+            File entry = new File(dir, entryName);
+            if (!entry.isFile()) {
+                // the checksum goes first, so that every entry in place has one
+                writeChecksum(new File(dir, entryName + CHECKSUM_SUFFIX), checksum);
+                if (!tmp.renameTo(entry)) {
+                    throw new IOException("Failed to rename " + tmp + " to " + entry);
+                }
+            }
+            long now = System.currentTimeMillis();
+            entry.setLastModified(now);
+
+            File[] entries = dir.listFiles(new FileFilter() {
+
+                public boolean accept(File f) {
+                    return f.isFile() && !f.getName().startsWith(".") && !f.getName().endsWith(CHECKSUM_SUFFIX);
+                }
+            });
+            if (entries == null) {
+                return "";
+            }
+            Arrays.sort(entries, new Comparator<File>() {
+
+                public int compare(File f1, File f2) {
+                    long l1 = f1.lastModified(), l2 = f2.lastModified();
+                    return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+                }
+            });
+
+            long total = 0;
+            for (File f : entries) {
+                total += f.length();
+            }
+            StringBuilder evicted = new StringBuilder();
+            for (File f : entries) {
+                if (total <= maxSize) {
+                    break;
+                }
+                if (f.lastModified() > now - MIN_AGE) {
+                    // recently used, the rest are even more recent
+                    break;
+                }
+                long size = f.length();
+                // a download left over by an aborted build is removed the same way
+                if (f.delete()) {
+                    new File(dir, f.getName() + CHECKSUM_SUFFIX).delete();
+                    total -= size;
+                    evicted.append(evicted.length() == 0 ? "" : " ").append(f.getName());
+                }
+            }
+            return evicted.toString();
+        }
+        private static final long serialVersionUID = 1L;
+    }
+}
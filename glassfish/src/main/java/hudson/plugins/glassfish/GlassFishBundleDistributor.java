@@ -0,0 +1,179 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 1997-2010 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package hudson.plugins.glassfish;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Distributes the GlassFish .zip bundle to the cluster nodes.
+ * The bundle is fetched from the URL only once, by the first (DAS) node,
+ * which usually kept it from its own installation, then copied from there to the other nodes over the remoting channels,
+ * as many at a time as the task runner allows.
+ * Each copy is verified against the SHA-1 of the original.
+ */
+final class GlassFishBundleDistributor {
+
+    private final PrintStream logger;
+    private final GlassFishTaskRunner runner;
+    // copies outside the bundle cache, to be removed once the bundle is unzipped
+    private final Set<FilePath> tempCopies = Collections.synchronizedSet(new HashSet<FilePath>());
+
+    GlassFishBundleDistributor(PrintStream logger, GlassFishTaskRunner runner) {
+        this.logger = logger;
+        this.runner = runner;
+    }
+
+    /**
+     * Copy the bundle from the first node to all the other nodes.
+     * @return the copy of the bundle on each node, by node name, or null if the distribution failed.
+     */
+    Map<String, FilePath> distribute(String zipBundleURL, List<GlassFishClusterNode> nodes) {
+        final Map<String, FilePath> copies = Collections.synchronizedMap(new HashMap<String, FilePath>());
+        try {
+            URL url = new URL(zipBundleURL);
+            final String fileName = new File(url.getPath()).getName();
+            final String entryName = GlassFishBundleCache.getEntryName(url);
+
+            GlassFishClusterNode root = nodes.get(0);
+            GlassFishBundleCache rootCache = root.getInstaller().getBundleCache();
+            FilePath rootCopy = rootCache.get(url);
+            String rootChecksum;
+            if (rootCopy != null) {
+                rootChecksum = rootCache.getChecksum(rootCopy);
+            } else if (root.getInstaller().getStreamedBundle() != null) {
+                // kept by the installation of the first node
+                rootCopy = root.getInstaller().getStreamedBundle();
+                tempCopies.add(rootCopy);
+                rootChecksum = root.getInstaller().getStreamedBundleChecksum();
+            } else {
+                rootCopy = new FilePath(root.getWorkDir(), fileName);
+                tempCopies.add(rootCopy);
+                rootCopy.copyFrom(url);
+                rootChecksum = rootCopy.act(new GlassFishBundleCache.Checksum());
+            }
+            final FilePath source = rootCopy;
+            final String checksum = rootChecksum;
+            copies.put(root.getNodeName(), rootCopy);
+            logger.println(GlassFishPluginUtils.getLogDate() + "Distributing " + fileName + " (SHA-1 " + checksum + ") from "
+                    + root.getNodeName() + " to " + (nodes.size() - 1) + " node(s)");
+
+            ArrayList<GlassFishTaskRunner.Task> tasks = new ArrayList<GlassFishTaskRunner.Task>();
+            for (final GlassFishClusterNode target : nodes.subList(1, nodes.size())) {
+                tasks.add(new GlassFishTaskRunner.Task(target.getNodeName(), target) {
+
+                    boolean run(PrintStream out) throws InterruptedException {
+                        try {
+                            copies.put(target.getNodeName(), copy(source, target, fileName, entryName, checksum, out));
+                            return true;
+                        } catch (IOException e) {
+                            e.printStackTrace(out);
+                            return false;
+                        }
+                    }
+                });
+            }
+            if (!GlassFishTaskRunner.allSucceeded(runner.runAll(tasks, true))) {
+                logger.println("ERROR: Failed to distribute " + fileName);
+                deleteTempCopies();
+                return null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace(logger);
+            deleteTempCopies();
+            return null;
+        } catch (InterruptedException e) {
+            e.printStackTrace(logger);
+            deleteTempCopies();
+            return null;
+        }
+        return copies;
+    }
+
+    // a node which still has the same bundle in its cache doesn't need a new copy
+    private FilePath copy(FilePath source, GlassFishClusterNode target, String fileName, String entryName,
+            String checksum, PrintStream out) throws IOException, InterruptedException {
+        GlassFishBundleCache cache = target.getInstaller().getBundleCache();
+        FilePath cached = cache.lookup(entryName);
+        if (cached != null && checksum.equals(cache.getChecksum(cached))) {
+            out.println("Using cached " + fileName);
+            return cached;
+        }
+
+        FilePath copy = cache.add(entryName, source, checksum);
+        if (copy != null) {
+            return copy;
+        }
+
+        copy = new FilePath(target.getWorkDir(), fileName);
+        tempCopies.add(copy);
+        source.copyTo(copy);
+        String copyChecksum = copy.act(new GlassFishBundleCache.Checksum());
+        if (!copyChecksum.equals(checksum)) {
+            throw new IOException("Checksum mismatch: " + copy + " (" + copyChecksum + "), expected " + checksum);
+        }
+        return copy;
+    }
+
+    /**
+     * Remove the copies made in the workspace (when the bundle couldn't be cached).
+     */
+    void deleteTempCopies() {
+        synchronized (tempCopies) {
+            for (FilePath copy : tempCopies) {
+                try {
+                    copy.delete();
+                } catch (IOException e) {
+                    e.printStackTrace(logger);
+                } catch (InterruptedException e) {
+                    e.printStackTrace(logger);
+                }
+            }
+            tempCopies.clear();
+        }
+    }
+}
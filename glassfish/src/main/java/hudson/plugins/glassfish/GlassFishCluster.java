@@ -36,6 +36,7 @@
 package hudson.plugins.glassfish;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.io.StringReader;
@@ -52,6 +53,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
 import java.util.Set;
+import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Properties;
@@ -88,7 +90,7 @@ public class GlassFishCluster {
             String numNodes,
             int basePort,
             String clusterName,
-            String nodeSelectionLabel) {
+            String nodeSelectionLabel) throws IOException {
         this.build = build;
         this.launcher = launcher;
         this.listener = listener;
@@ -112,15 +114,27 @@ public class GlassFishCluster {
         return dasNodeName;
     }
 
+    // the DAS ports are reserved for the build along with the instance ports,
+    // so that a concurrent build on the same node doesn't pick them either
     boolean verifyDasPortAvailability() {
+        int[] ports;
+        try {
+            ports = GlassFishPortAllocator.allocate(Computer.currentComputer().getNode(), build,
+                    new int[]{dasAdminPort, dasHttpPort});
+        } catch (IOException e) {
+            e.printStackTrace(logger);
+            return false;
+        } catch (InterruptedException e) {
+            e.printStackTrace(logger);
+            return false;
+        }
 
-        if (GlassFishClusterNode.getAvailablePort(Computer.currentComputer().getNode(), dasAdminPort, "DAS_ADMIN_PORT") != dasAdminPort) {
+        if (ports[0] != dasAdminPort) {
             logger.println("INFO: DAS_ADMIN_PORT " + dasAdminPort + " is not available!");
-
             return false;
         }
 
-        if (GlassFishClusterNode.getAvailablePort(Computer.currentComputer().getNode(), dasHttpPort, "DAS_HTTP_PORT") != dasHttpPort) {
+        if (ports[1] != dasHttpPort) {
             logger.println("INFO: DAS_HTTP_PORT " + dasHttpPort + " is not available!");
             return false;
         }
@@ -222,7 +236,13 @@ public class GlassFishCluster {
         }
 
         for (Node node : slaveNodes) {
-            clusterNodes.add(new GlassFishClusterNode(node, build, logger, listener));
+            try {
+                clusterNodes.add(new GlassFishClusterNode(node, build, logger, listener));
+            } catch (IOException e) {
+                e.printStackTrace(logger);
+                logger.println("ERROR: Couldn't set up " + node.getNodeName() + " for GlassFish Instance deployment.");
+                return false;
+            }
         }
 
         for (GlassFishInstance in : clusterMap.values()) {
@@ -237,8 +257,26 @@ public class GlassFishCluster {
     }
 
     // install GlassFish on DAS node only
-    boolean installGlassFishOnDasNode(String zipBundleURL) {
-        if (!installGlassFish(getDasClusterNode(), zipBundleURL)) {
+    // the .zip files among the user task files are unzipped on top of the installation,
+    // so that they are part of the DAS node installation manifest.
+    // If there are other nodes and the bundle can't be cached, the DAS node keeps its copy of the bundle
+    // for installGlassFishOnNonDasNodes() to distribute
+    boolean installGlassFishOnDasNode(String zipBundleURL, String userTaskFilesURL) {
+        ArrayList<String> zipBundleURLs = new ArrayList<String>();
+        zipBundleURLs.add(zipBundleURL);
+        for (String url : userTaskFilesURL.split(" ")) {
+            if (url.toLowerCase().endsWith(".zip")) {
+                zipBundleURLs.add(url);
+            }
+        }
+
+        logger.println(GlassFishPluginUtils.getLogDate() + getDasNodeName() + ":Installing GlassFish Bundle " + zipBundleURLs);
+        boolean otherNodes = false;
+        for (GlassFishClusterNode gfcNode : clusterNodes) {
+            otherNodes |= !gfcNode.getNodeName().equals(getDasClusterNode().getNodeName());
+        }
+        if (!getDasClusterNode().getInstaller().installGlassFishFromZipBundles(zipBundleURLs, otherNodes)) {
+            logger.println(getDasNodeName() + ": ERROR: GlassFish Installation Failed. ");
             return false;
         }
 
@@ -255,15 +293,12 @@ public class GlassFishCluster {
                 continue;
             }
             if (url.toLowerCase().endsWith(".zip")) {
-                //copy and unzip the file
-                if (!getDasClusterNode().getInstaller().remoteUnzip(true, url)) {
-                    return false;
-                }
-            } else {
-                // simply copy the file
-                if (!getDasClusterNode().getInstaller().remoteCopyFile(true, url)) {
-                    return false;
-                }
+                // already unzipped by installGlassFishOnDasNode()
+                continue;
+            }
+            // simply copy the file
+            if (!getDasClusterNode().getInstaller().remoteCopyFile(true, url)) {
+                return false;
             }
         }
 
@@ -271,25 +306,62 @@ public class GlassFishCluster {
     }
 
     // install GlassFish on all (subslave) nodes - except DAS node
-    boolean installGlassFishOnNonDasNodes(String zipBundleURL) {
+    // the nodes are installed in parallel. If the installation fails on any node,
+    // installations still in progress are cancelled, and the partial installations are removed.
+    // The bundle is fetched only by the DAS node and copied from there to the other nodes,
+    // instead of every node downloading it.
+    boolean installGlassFishOnNonDasNodes(final String zipBundleURL) {
+        ArrayList<GlassFishClusterNode> nodes = new ArrayList<GlassFishClusterNode>();
+        Set<String> nodeNames = new HashSet<String>();
+        nodes.add(getDasClusterNode());
+        nodeNames.add(getDasClusterNode().getNodeName());
         for (GlassFishClusterNode gfcNode : clusterNodes) {
-            if (!gfcNode.getNode().getNodeName().equals(getDasClusterNode().getNode().getNodeName())) {
-                if (!installGlassFish(gfcNode, zipBundleURL)) {
-                    return false;
-                }
+            if (nodeNames.add(gfcNode.getNodeName())) {
+                nodes.add(gfcNode);
             }
         }
-        return true;
+        if (nodes.size() == 1) {
+            return true;
+        }
+
+        GlassFishBundleDistributor distributor = new GlassFishBundleDistributor(logger,
+                new GlassFishTaskRunner(logger, gfbuilder.getMaxConcurrentTasks(), 1));
+        Map<String, FilePath> bundleCopies = distributor.distribute(zipBundleURL, nodes);
+        if (bundleCopies == null) {
+            return false;
+        }
+
+        ArrayList<GlassFishTaskRunner.Task> tasks = new ArrayList<GlassFishTaskRunner.Task>();
+        for (final GlassFishClusterNode gfcNode : nodes.subList(1, nodes.size())) {
+            final FilePath bundleCopy = bundleCopies.get(gfcNode.getNodeName());
+            tasks.add(new GlassFishTaskRunner.Task(gfcNode.getNodeName(), gfcNode) {
+
+                boolean run(PrintStream out) {
+                    return installGlassFish(gfcNode, bundleCopy, out);
+                }
+
+                void cleanup(PrintStream out) {
+                    out.println(gfcNode.getNodeName() + ":Removing partial GlassFish Installation ");
+                    gfcNode.getInstaller().deleteInstall();
+                }
+            });
+        }
+
+        GlassFishTaskRunner runner = new GlassFishTaskRunner(logger, gfbuilder.getMaxConcurrentTasks(), 1);
+        Map<String, Boolean> outcome = runner.runAll(tasks, true);
+        distributor.deleteTempCopies();
+        for (String nodeName : GlassFishTaskRunner.failed(outcome)) {
+            logger.println(nodeName + ": ERROR: GlassFish Installation Failed or Cancelled. ");
+        }
+        return GlassFishTaskRunner.allSucceeded(outcome);
     }
 
-    boolean installGlassFish(GlassFishClusterNode gfcNode, String zipBundleURL) {
+    // install from the copy of the bundle distributed to the node
+    boolean installGlassFish(GlassFishClusterNode gfcNode, FilePath zipFile, PrintStream out) {
 
-        logger.println(GlassFishPluginUtils.getLogDate() + gfcNode.getNode().getNodeName() + ":Installing GlassFish Bundle " + zipBundleURL);
-        if (!gfcNode.getInstaller().installGlassFishFromZipBundle(zipBundleURL)) {
-            logger.println(gfcNode.getNode().getNodeName() + ": ERROR: GlassFish Installation Failed. ");
-            // if the installer fails on one of the nodes, then we can not continue
-            // TODO: Cleanup: remove successful and partially completed glassfish installtion
-            //       since we are aborting at this point
+        out.println(GlassFishPluginUtils.getLogDate() + gfcNode.getNode().getNodeName() + ":Installing GlassFish Bundle " + zipFile.getName());
+        if (!gfcNode.getInstaller().installGlassFishFromZipFile(zipFile, out)) {
+            out.println(gfcNode.getNode().getNodeName() + ": ERROR: GlassFish Installation Failed. ");
             return false;
         }
 
@@ -311,9 +383,40 @@ public class GlassFishCluster {
         return true;
     }
 
+    // ports of all the instances on a node are allocated together, with a single check on the node
     public void updateClusterMapPerPortAvailability() {
+        Map<GlassFishClusterNode, List<GlassFishInstance>> instancesPerNode =
+                new LinkedHashMap<GlassFishClusterNode, List<GlassFishInstance>>();
         for (GlassFishInstance in : clusterMap.values()) {
-            in.updatePerPortAvailability();
+            List<GlassFishInstance> instances = instancesPerNode.get(in.getClusterNode());
+            if (instances == null) {
+                instances = new ArrayList<GlassFishInstance>();
+                instancesPerNode.put(in.getClusterNode(), instances);
+            }
+            instances.add(in);
+        }
+
+        for (Entry<GlassFishClusterNode, List<GlassFishInstance>> e : instancesPerNode.entrySet()) {
+            List<GlassFishInstance> instances = e.getValue();
+            int[] preferred = new int[instances.size() * GlassFishInstance.NUM_PORTS];
+            for (int i = 0; i < instances.size(); i++) {
+                System.arraycopy(instances.get(i).getPorts(), 0, preferred, i * GlassFishInstance.NUM_PORTS,
+                        GlassFishInstance.NUM_PORTS);
+            }
+            try {
+                int[] ports = GlassFishPortAllocator.allocate(e.getKey().getNode(), build, preferred);
+                for (int i = 0; i < instances.size(); i++) {
+                    instances.get(i).setPorts(ports, i * GlassFishInstance.NUM_PORTS);
+                }
+                logger.println(e.getKey().getNodeName() + ": " + instances.size() + " instance(s), "
+                        + GlassFishPortAllocator.toString(preferred, ports));
+            } catch (IOException ex) {
+                // keep the preferred ports, as when PortAllocationManager failed
+                logger.println(e.getKey().getNodeName() + ": ERROR: Couldn't allocate ports");
+                ex.printStackTrace(logger);
+            } catch (InterruptedException ex) {
+                ex.printStackTrace(logger);
+            }
         }
     }
 
@@ -451,6 +554,11 @@ public class GlassFishCluster {
                 //println(verbose, "Current Node " + computerName + " is marked for running GlassFish DAS and Instance1");
                 continue;
             }
+            // skip the nodes which can't be reached, the facts probed here are reused by GlassFishClusterNode
+            if (GlassFishNodeFacts.get(n, logger) == null) {
+                logger.println("Skipped: " + n.getNodeName() + " (Node can't be reached)");
+                continue;
+            }
             selected_slaves.add(i++, n);
         }
         return selected_slaves;
@@ -692,7 +800,13 @@ public class GlassFishCluster {
 
         for (GlassFishInstance in : clusterMap.values()) {
             Node node = Hudson.getInstance().getNode(in.nodeName);
-            GlassFishClusterNode clusterNode = new GlassFishClusterNode(node, build, logger, listener);
+            GlassFishClusterNode clusterNode;
+            try {
+                clusterNode = new GlassFishClusterNode(node, build, logger, listener);
+            } catch (IOException e) {
+                e.printStackTrace(logger);
+                return false;
+            }
             in.clusterNode = clusterNode;
             clusterNodes.add(clusterNode);
 
@@ -32,13 +32,24 @@ public class GlassFishClusterNode {
     static AbstractBuild build;
     FilePath workDir;
     GlassFishInstaller gfi;
+    GlassFishNodeFacts facts;
 
-    GlassFishClusterNode(Node node, AbstractBuild build, PrintStream logger, BuildListener listener) {
+    /**
+     * @throws IOException if the node can't be probed. The install paths and commands
+     *  depend on the OS of the node, so it can't be used without knowing it.
+     */
+    GlassFishClusterNode(Node node, AbstractBuild build, PrintStream logger, BuildListener listener) throws IOException {
         this.node = node;
         this.build = build;
         this.logger = logger;
         this.listener = listener;       
 
+        // node facts are probed once, and shared with the other components through the cache
+        facts = GlassFishNodeFacts.get(node, logger);
+        if (facts == null) {
+            throw new IOException(node.getNodeName() + ": Couldn't determine the OS of the node");
+        }
+
         setWorkDir();
 
         launcher = node.createLauncher(listener);
@@ -101,12 +112,16 @@ public class GlassFishClusterNode {
         return getNode().getNodeName();
     }
 
+    GlassFishNodeFacts getFacts() {
+        return facts;
+    }
+
     boolean isWindows() {
-        return getOS().startsWith("windows");
+        return facts.isWindows();
     }
 
     String getOS() {
-        return getSystemProperty("os.name").toLowerCase();
+        return facts.getOS();
     }
     
      public String getSystemProperty(String propName) {
@@ -142,6 +157,14 @@ public class GlassFishClusterNode {
      * @return
      */
     boolean execCommand(Map additionaEnvVars, String cmd) {
+        return execCommand(additionaEnvVars, cmd, logger);
+    }
+
+    /**
+     * Same as above, but the command output and any errors are written to the
+     * specified stream. Used when the commands are executed in parallel.
+     */
+    boolean execCommand(Map additionaEnvVars, String cmd, PrintStream out) {
         try {
             //Map envVars = build.getEnvVars();
             Map envVars = getNode().toComputer().getEnvVars();
@@ -155,24 +178,24 @@ public class GlassFishClusterNode {
             EnvVars clusterEnv = new EnvVars(key, value);
             envVars.putAll(clusterEnv);
 
-            logger.println(GlassFishPluginUtils.getLogDate() + getNodeName() + " executing: ");
+            out.println(GlassFishPluginUtils.getLogDate() + getNodeName() + " executing: ");
 
-            Proc proc = launcher.launch(cmd, envVars, logger, workDir);
+            Proc proc = launcher.launch(cmd, envVars, out, workDir);
             int exitCode = proc.join();
 
             if (exitCode == 0) {
                 return true;
             } else {
-                logger.println("ERROR: " + cmd);
+                out.println("ERROR: " + cmd);
                 return false;
             }
         } catch (IOException e) {
-            e.printStackTrace(logger);
-            logger.println("ERROR (IOException): " + cmd);
+            e.printStackTrace(out);
+            out.println("ERROR (IOException): " + cmd);
             return false;
         } catch (InterruptedException e) {
-            e.printStackTrace(logger);
-            logger.println("ERROR (InterruptedException): " + cmd);
+            e.printStackTrace(out);
+            out.println("ERROR (InterruptedException): " + cmd);
             return false;
         }
     }
@@ -180,42 +203,4 @@ public class GlassFishClusterNode {
     boolean execCommand(String cmd) {
         return execCommand(null, cmd);
     }
-
-    /**
-     * Gives a hint about availability of the specified "basePort".
-     * Checks if the specified basePort is available on the current computer.
-     * If the port is available - return the port number.
-     * If the port is not available, return randomly selected "available" port.
-     * Note: This simply indicates that the port is available at this moment.
-     * The port is is not actually reserved - and may be unavailable when the
-     * GlassFish instance tries to bind to it
-     */
-    static int getAvailablePort(Node node, int basePort, String portName) {
-        int localPort;
-        Computer cur = node.toComputer();
-        org.jvnet.hudson.plugins.port_allocator.PortAllocationManager pam =
-                org.jvnet.hudson.plugins.port_allocator.PortAllocationManager.getManager(cur);
-
-        try {
-
-            localPort = pam.allocateRandom(build, basePort);
-            if (localPort != basePort) {
-                logger.println(node.getNodeName() + ": Updated " + portName + "=" + localPort
-                        + " (" + basePort + " is not available!)");
-            }
-        } catch (IOException e) {
-            e.printStackTrace(logger);
-            //logger.println("IOException !");
-            return -1;
-        } catch (InterruptedException e) {
-            e.printStackTrace(logger);
-            //logger.println("InterruptedException!");
-            return -1;
-        }
-        return localPort;
-    }
-
-    int getAvailablePort(int basePort, String portName) {
-        return getAvailablePort(node, basePort, portName);
-    }
 }
@@ -0,0 +1,632 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 1997-2010 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package hudson.plugins.glassfish;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.remoting.Pipe;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Incremental unzip of the GlassFish bundle (and the user task .zip files applied on top of it)
+ * into the workspace of a node, executed on the node.
+ * <p>
+ * The manifest kept in the installation directory records the CRC-32, size and
+ * modification time of each file written by the last unzip. On the next install only the files
+ * which differ from the bundles, or were modified locally, are written again, and the files
+ * created since (instance directories, logs etc.) are removed from the installation directory.
+ * If the installation already matches the bundles, nothing is written at all.
+ * <p>
+ * When the bundle isn't available on the node, it is unzipped while it is being downloaded,
+ * instead of being saved to the disk first. The bytes read can be copied to a file on the node
+ * at the same time, so the bundle is downloaded only once even if it's also cached.
+ */
+final class GlassFishInstallManifest implements FileCallable<GlassFishInstallManifest.Result> {
+
+    static final String MANIFEST_FILE = ".install-manifest";
+    // commands in these directories (relative to the installation directory) must be executable
+    static final String[] BIN_DIRS = {"bin", "glassfish/bin", "mq/bin", "javadb/bin"};
+    // the bundle read from the URL as it is downloaded, unzipped before the .zip files. May be null.
+    // A remote node gets the bundle through the pipe, see send().
+    private final Pipe bundlePipe;
+    private final transient InputStream bundleStream;
+    // file on the node the bundle stream is copied to as it is read, or null
+    private final String bundleCopy;
+    // the .zip files to unzip, later files override earlier ones
+    private final List<String> zipFiles;
+    private final String installDirName;
+    // files inside the installation directory, created after the unzip, which are to be kept
+    private final Set<String> keep;
+
+    GlassFishInstallManifest(List<String> zipFiles, String installDirName, Set<String> keep) {
+        this(null, null, null, zipFiles, installDirName, keep);
+    }
+
+    /**
+     * @param bundlePipe pipe which the bundle is sent through to a remote node, or null.
+     * @param bundleStream the bundle, if this node is the Hudson master. Every entry of the bundle
+     *  is written, since there is no central directory to compare against before the entry is read.
+     * @param bundleCopy file the whole bundle is written to as well, or null.
+     *  Written even if the bundle can't be unzipped as a stream.
+     */
+    GlassFishInstallManifest(Pipe bundlePipe, InputStream bundleStream, String bundleCopy, List<String> zipFiles,
+            String installDirName, Set<String> keep) {
+        this.bundlePipe = bundlePipe;
+        this.bundleStream = bundleStream;
+        this.bundleCopy = bundleCopy;
+        this.zipFiles = zipFiles;
+        this.installDirName = installDirName;
+        this.keep = keep;
+    }
+
+    static final class Result implements Serializable {
+
+        int unchanged, written, removed, madeExecutable;
+        // set if the bundle stream couldn't be unzipped, the bundle must be downloaded first
+        String streamError;
+        // SHA-1 of the bundle written to bundleCopy, if there was one
+        String bundleChecksum;
+
+        boolean isUpToDate() {
+            return written == 0 && removed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return unchanged + " files unchanged, " + written + " written, " + removed + " removed"
+                    + (madeExecutable > 0 ? ", " + madeExecutable + " commands made executable" : "");
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Manifest entry of an installed file.
+     */
+    private static final class Entry {
+
+        final long crc, size, lastModified;
+
+        Entry(long crc, long size, long lastModified) {
+            this.crc = crc;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public Result invoke(File workspace, VirtualChannel channel) throws IOException {
+        File installDir = new File(workspace, installDirName);
+        File manifestFile = new File(installDir, MANIFEST_FILE);
+        Map<String, Entry> manifest = read(manifestFile);
+        Map<String, Entry> newManifest = new LinkedHashMap<String, Entry>();
+        Result result = new Result();
+
+        Set<String> dirs = new HashSet<String>();
+        InputStream bundle = bundlePipe != null ? new ChunkedInputStream(bundlePipe.getIn()) : bundleStream;
+        if (bundle != null) {
+            CopyingInputStream copy = bundleCopy != null ? new CopyingInputStream(bundle, new File(bundleCopy)) : null;
+            try {
+                try {
+                    unzipStream(copy != null ? copy : bundle, workspace, newManifest, dirs, result);
+                } catch (ZipException e) {
+                    // e.g. stored entries with a data descriptor - the sizes are only known from the central directory.
+                    // Nothing is removed and the old manifest is kept, the files written so far
+                    // are compared against the bundle by the next attempt.
+                    result.streamError = e.toString();
+                }
+                if (copy != null) {
+                    // the central directory after the last entry, or the rest of a bundle that couldn't be unzipped
+                    result.bundleChecksum = copy.finish();
+                }
+            } finally {
+                if (copy != null) {
+                    copy.close();
+                }
+                bundle.close();
+            }
+            if (result.streamError != null) {
+                return result;
+            }
+        }
+
+        String root = getRoot(workspace);
+        ZipFile[] zips = new ZipFile[zipFiles.size()];
+        try {
+            // contents of the installation: path -> entry of the last .zip file which has the path
+            Map<String, ZipEntry> entries = new LinkedHashMap<String, ZipEntry>();
+            Map<String, ZipFile> entryZips = new HashMap<String, ZipFile>();
+            for (int i = 0; i < zips.length; i++) {
+                zips[i] = new ZipFile(zipFiles.get(i));
+                Enumeration<? extends ZipEntry> e = zips[i].entries();
+                while (e.hasMoreElements()) {
+                    ZipEntry ze = e.nextElement();
+                    String path = checkPath(ze, zipFiles.get(i), workspace, root);
+                    if (ze.isDirectory()) {
+                        dirs.add(path.substring(0, path.length() - 1));
+                        new File(workspace, path).mkdirs();
+                        continue;
+                    }
+                    entries.put(path, ze);
+                    entryZips.put(path, zips[i]);
+                    addParentDirs(path, dirs);
+                }
+            }
+
+            for (Map.Entry<String, ZipEntry> e : entries.entrySet()) {
+                checkInterrupted();
+                String path = e.getKey();
+                ZipEntry ze = e.getValue();
+                File f = new File(workspace, path);
+                Entry installed = manifest.get(path);
+                if (isUnchanged(f, installed, ze)) {
+                    result.unchanged++;
+                } else {
+                    InputStream in = entryZips.get(path).getInputStream(ze);
+                    try {
+                        write(in, f, path, null);
+                    } finally {
+                        in.close();
+                    }
+                    result.written++;
+                }
+                newManifest.put(path, new Entry(ze.getCrc(), ze.getSize(), f.lastModified()));
+            }
+
+            // anything else in the installation directory wasn't there after the last unzip
+            if (installDir.isDirectory()) {
+                result.removed += removeUntracked(installDir, installDirName, newManifest, dirs);
+            }
+            write(manifestFile, newManifest);
+            result.madeExecutable = assignExecPermissions(installDir);
+            return result;
+        } finally {
+            for (ZipFile zip : zips) {
+                if (zip != null) {
+                    zip.close();
+                }
+            }
+        }
+    }
+
+    // the build was aborted, e.g. while other nodes of the cluster were installed.
+    // Stop before the partial installation is removed under our feet
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Aborted");
+        }
+    }
+
+    // cheap check first: same size and time stamp as recorded in the manifest,
+    // otherwise compare the contents against the CRC-32 of the .zip entry
+    private static boolean isUnchanged(File f, Entry installed, ZipEntry ze) throws IOException {
+        if (!f.isFile() || f.length() != ze.getSize()) {
+            return false;
+        }
+        if (installed != null && installed.crc == ze.getCrc() && installed.size == ze.getSize()
+                && installed.lastModified == f.lastModified()) {
+            return true;
+        }
+        return crc(f) == ze.getCrc();
+    }
+
+    private static long crc(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                crc.update(buf, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void unzipStream(InputStream in, File workspace, Map<String, Entry> newManifest, Set<String> dirs,
+            Result result) throws IOException {
+        String root = getRoot(workspace);
+        ZipInputStream zin = new ZipInputStream(new BufferedInputStream(in, 64 * 1024));
+        int count = 0;
+        ZipEntry ze;
+        while ((ze = zin.getNextEntry()) != null) {
+            checkInterrupted();
+            count++;
+            String path = checkPath(ze, "bundle", workspace, root);
+            File f = new File(workspace, path);
+            if (ze.isDirectory()) {
+                dirs.add(path.substring(0, path.length() - 1));
+                f.mkdirs();
+                continue;
+            }
+            addParentDirs(path, dirs);
+            CRC32 crc = new CRC32();
+            long size = write(zin, f, path, crc);
+            newManifest.put(path, new Entry(crc.getValue(), size, f.lastModified()));
+            result.written++;
+        }
+        if (count == 0) {
+            // not a plain zip stream, e.g. a self extracting archive
+            throw new ZipException("No zip entries found");
+        }
+    }
+
+    /**
+     * Sends the bundle through the pipe in chunks, terminated by an empty chunk, so that the node
+     * can tell a complete download from one which ended early. Stops sending if the node
+     * is done, i.e. failed to unzip the stream.
+     */
+    static void send(InputStream in, OutputStream out, Future<?> unzip) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                if (unzip.isDone()) {
+                    return;
+                }
+                dout.writeInt(len);
+                dout.write(buf, 0, len);
+            }
+            dout.writeInt(0);
+        } finally {
+            dout.close();
+        }
+    }
+
+    private static final class ChunkedInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private int remaining;
+        private boolean eof;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (remaining == 0) {
+                // EOFException if the download ended early
+                remaining = in.readInt();
+                if (remaining == 0) {
+                    eof = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Unexpected end of the bundle");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the bytes read from the stream to a file, and computes their SHA-1.
+     */
+    private static final class CopyingInputStream extends FilterInputStream {
+
+        private final OutputStream out;
+        private final MessageDigest md;
+
+        CopyingInputStream(InputStream in, File f) throws IOException {
+            super(in);
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.toString());
+            }
+            out = new FileOutputStream(f);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                out.write(b);
+                md.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                out.write(b, off, n);
+                md.update(b, off, n);
+            }
+            return n;
+        }
+
+        // mark/reset would copy the same bytes twice
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Copies the rest of the stream.
+         * @return SHA-1 of the whole stream
+         */
+        String finish() throws IOException {
+            byte[] buf = new byte[64 * 1024];
+            while (read(buf, 0, buf.length) >= 0) {
+                // copied by read()
+            }
+            out.close();
+            return Util.toHexString(md.digest());
+        }
+
+        // the underlying stream is closed by its owner
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks that the entry stays inside the workspace once resolved, whether it uses "..",
+     * backslashes, an absolute path or a symbolic link to get out.
+     * @param root canonical path of the workspace, see getRoot()
+     */
+    private static String checkPath(ZipEntry ze, String zipName, File workspace, String root) throws IOException {
+        String path = ze.getName();
+        if (!new File(workspace, path).getCanonicalPath().startsWith(root)) {
+            throw new IOException("Invalid entry " + path + " in " + zipName);
+        }
+        return path;
+    }
+
+    private static String getRoot(File workspace) throws IOException {
+        return workspace.getCanonicalPath() + File.separator;
+    }
+
+    private static void addParentDirs(String path, Set<String> dirs) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (!dirs.add(path.substring(0, slash))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the file, and makes the commands in the bin directories executable.
+     * @return number of bytes written
+     */
+    private static long write(InputStream in, File f, String path, CRC32 crc) throws IOException {
+        File parent = f.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        long size = 0;
+        OutputStream out = new FileOutputStream(f);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+                if (crc != null) {
+                    crc.update(buf, 0, len);
+                }
+                size += len;
+            }
+        } finally {
+            out.close();
+        }
+
+        if (path.endsWith("/bin/" + f.getName()) || path.equals("bin/" + f.getName())) {
+            makeExecutable(f);
+        }
+        return size;
+    }
+
+    /**
+     * The files in the bin directories are unzipped without the execute permission.
+     * Newly written commands are fixed by write(), this covers the ones left unchanged,
+     * in case the permission was removed since the earlier install.
+     * @return number of files which were not executable
+     */
+    private static int assignExecPermissions(File installDir) throws IOException {
+        int count = 0;
+        for (String binDir : BIN_DIRS) {
+            File[] files = new File(installDir, binDir).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (f.isFile() && makeExecutable(f)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // returns false if the file is already executable (or this is not Unix)
+    private static boolean makeExecutable(File f) throws IOException {
+        FilePath cmdFile = new FilePath(f);
+        // b001001001 represets execute permission to all on Unix
+        int execMask = Integer.parseInt("001001001", 2);
+        try {
+            int mode = cmdFile.mode();
+            if (mode == -1 || (mode & execMask) == execMask) {
+                return false;
+            }
+            // Do a "bitwise inclusive OR operation" to assign the exec permission
+            cmdFile.chmod(mode | execMask);
+            return true;
+        } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    private int removeUntracked(File dir, String path, Map<String, Entry> tracked, Set<String> dirs) throws IOException {
+        int removed = 0;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        for (File f : files) {
+            String childPath = path + "/" + f.getName();
+            // a symbolic link to a directory is removed, not followed
+            if (f.isDirectory() && !isSymlink(f)) {
+                removed += removeUntracked(f, childPath, tracked, dirs);
+                if (!dirs.contains(childPath)) {
+                    if (!f.delete()) {
+                        throw new IOException("Failed to delete " + f);
+                    }
+                    removed++;
+                }
+            } else if (!tracked.containsKey(childPath) && !keep.contains(childPath)
+                    && !childPath.equals(installDirName + "/" + MANIFEST_FILE)) {
+                if (!f.delete()) {
+                    throw new IOException("Failed to delete " + f);
+                }
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isSymlink(File f) throws IOException {
+        File canonicalDir = f.getParentFile().getCanonicalFile();
+        return !new File(canonicalDir, f.getName()).getCanonicalFile().equals(new File(canonicalDir, f.getName()));
+    }
+
+    private static Map<String, Entry> read(File manifestFile) throws IOException {
+        Map<String, Entry> manifest = new HashMap<String, Entry>();
+        if (!manifestFile.isFile()) {
+            return manifest;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(manifestFile));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // crc size lastModified path
+                String[] fields = line.split(" ", 4);
+                if (fields.length < 4 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    manifest.put(fields[3], new Entry(Long.parseLong(fields[0], 16),
+                            Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    // ignore the entry, the file is compared against the bundle instead
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return manifest;
+    }
+
+    private static void write(File manifestFile, Map<String, Entry> manifest) throws IOException {
+        File parent = manifestFile.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        File tmp = new File(parent, MANIFEST_FILE + ".tmp");
+        PrintWriter out = new PrintWriter(new FileWriter(tmp));
+        try {
+            out.println("# GlassFish installation manifest: crc32 size lastModified path");
+            for (Map.Entry<String, Entry> e : manifest.entrySet()) {
+                Entry entry = e.getValue();
+                out.println(Long.toHexString(entry.crc) + " " + entry.size + " " + entry.lastModified + " " + e.getKey());
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Failed to write " + tmp);
+        }
+        manifestFile.delete();
+        if (!tmp.renameTo(manifestFile)) {
+            throw new IOException("Failed to rename " + tmp + " to " + manifestFile);
+        }
+    }
+    private static final long serialVersionUID = 1L;
+}
@@ -37,12 +37,19 @@ package hudson.plugins.glassfish;
 
 import hudson.FilePath;
 import hudson.model.AbstractBuild;
+import hudson.remoting.Pipe;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * GlassFish Application Server .zip Installer.
@@ -64,6 +71,11 @@ public final class GlassFishInstaller {
     FilePath binDir, gfv3binDir, domain1LogsDir, GFHomeDir;
     private String installDirStr;
     GlassFishClusterNode clusterNode;
+    private GlassFishBundleCache bundleCache;
+    // copy of the bundle written in the workspace while it was unzipped, because it couldn't be cached.
+    // Only kept if asked for, see installGlassFishFromZipBundles(). The caller removes it.
+    private FilePath streamedBundle;
+    private String streamedBundleChecksum;
     final boolean Verbose = true;
 
     public GlassFishInstaller(GlassFishClusterNode clusterNode, AbstractBuild build, PrintStream logger) {
@@ -72,7 +84,7 @@ public final class GlassFishInstaller {
         this.clusterNode = clusterNode;
 
         OS_NAME = clusterNode.getOS();
-        logger.println(clusterNode.getNodeName() + ", os.name=" + OS_NAME);
+        logger.println(clusterNode.getNodeName() + ", " + clusterNode.getFacts());
 
         projectWorkSpace = clusterNode.getWorkDir();
         String GFHOME_DIR_REL = "";
@@ -104,6 +116,7 @@ public final class GlassFishInstaller {
         gfv3binDir = new FilePath(projectWorkSpace, GFV3BIN_DIR);
         domain1LogsDir = new FilePath(projectWorkSpace, GFDOMAIN1_LOGS_DIR);
         installDirStr = installDir.toString();
+        bundleCache = new GlassFishBundleCache(clusterNode.getNode(), logger);
     }
 
     String getAdminCmd() {
@@ -114,106 +127,208 @@ public final class GlassFishInstaller {
         return OS_NAME.startsWith("windows");
     }
 
+    GlassFishBundleCache getBundleCache() {
+        return bundleCache;
+    }
+
     /**
-     * Install GlassFish: Simply Get GlassFish .zip bundle from the specified URL
-     * and unzip the file.
+     * The copy of the bundle written while it was unzipped, if it was kept.
+     * @return null if there is none, e.g. when the bundle was cached instead.
      */
-    public boolean installGlassFishFromZipBundle(String GFZipBundleURLString) {
-
-        if (!deleteInstall()) {
-            return false;
-        }
-
-        if (!remoteUnzip(false, GFZipBundleURLString)) {
-            return false;
-        }
-        // After the bundle is unzippd, files in bin directory are missing execute permission.
-        // To workaround, explicitly set execute permission for all the commands in all the bin directories
-        // found inside current installation. This includes: ./bin, glassfish/bin, mq/bin, javadb/bin etc.
-        boolean result = true;
-        String dir1, dir2, dir3, dir4;
-        if (isWindows()) {
-            dir1 = "bin";
-            dir2 = "glassfish\\bin";
-            dir3 = "mq\\bin";
-            dir4 = "javadb\\bin";
-        } else {
-            dir1 = "bin";
-            dir2 = "glassfish/bin";
-            dir3 = "mq/bin";
-            dir4 = "javadb/bin";
-        }
+    FilePath getStreamedBundle() {
+        return streamedBundle;
+    }
 
-        result &= assignExecPermissions(new FilePath(installDir, dir1));
-        result &= assignExecPermissions(new FilePath(installDir, dir2));
-        result &= assignExecPermissions(new FilePath(installDir, dir3));
-        result &= assignExecPermissions(new FilePath(installDir, dir4));
+    String getStreamedBundleChecksum() {
+        return streamedBundleChecksum;
+    }
 
-        if (!result) {
-            return false;
-        }
-        // password file may be required for executing asadmin command
-        String CMD = "createGFPassWordFile()";
-        if (!createGFPassWordFile(build, logger)) {
-            logger.println("ERROR: " + CMD);
-            return false;
-        }
+    /**
+     * Install GlassFish: Get GlassFish .zip bundle from the specified URL
+     * and unzip the file. Files already installed from the same bundle are not written again.
+     */
+    public boolean installGlassFishFromZipBundle(String GFZipBundleURLString) {
+        return installGlassFishFromZipBundles(Collections.singletonList(GFZipBundleURLString));
+    }
 
-        return true;
+    /**
+     * Install GlassFish from the .zip bundles at the specified URLs: the GlassFish bundle,
+     * followed by any patch bundles which are unzipped on top of it.
+     */
+    public boolean installGlassFishFromZipBundles(List<String> zipBundleURLStrings) {
+        return installGlassFishFromZipBundles(zipBundleURLStrings, false);
     }
 
-    // assigns executable permission flag to all the files in the given directory
-    boolean assignExecPermissions(FilePath thisDir) {
+    /**
+     * @param keepBundle if true, and the GlassFish bundle can't be cached, the copy of the bundle
+     *  written while it is unzipped is kept in the workspace. See {@link #getStreamedBundle()}.
+     */
+    public boolean installGlassFishFromZipBundles(List<String> zipBundleURLStrings, boolean keepBundle) {
+        ArrayList<FilePath> zipFiles = new ArrayList<FilePath>();
+        ArrayList<FilePath> downloadedFiles = new ArrayList<FilePath>();
         try {
-            List<FilePath> fileList = thisDir.list();
-            if (fileList == null || fileList.isEmpty()) {
-                return true;
+            // the GlassFish bundle is unzipped as it is downloaded, unless it's in the cache
+            URL bundleURL = new URL(zipBundleURLStrings.get(0));
+            String bundleEntryName = GlassFishBundleCache.getEntryName(bundleURL);
+            FilePath cachedBundle = bundleCache.lookup(bundleEntryName);
+            if (cachedBundle != null) {
+                logger.println("Bundle cache: using cached " + cachedBundle.getName());
+                zipFiles.add(cachedBundle);
+            }
+            for (String zipBundleURLString : zipBundleURLStrings.subList(1, zipBundleURLStrings.size())) {
+                URL zipBundleURL = new URL(zipBundleURLString);
+                FilePath zipFile = bundleCache.get(zipBundleURL);
+                zipFiles.add(zipFile != null ? zipFile : download(zipBundleURL, downloadedFiles));
             }
-            for (FilePath cmdFile : fileList) {
-                // b001001001 represets execute permission to all on Unix
-                // Do a "bitwise inclusive OR operation" to assign the exec permission
-                cmdFile.chmod(cmdFile.mode() | Integer.parseInt("001001001", 2));
-                //logger.println("assignExecPermissions:" + cmdFile.toString());
+
+            if (cachedBundle == null) {
+                GlassFishInstallManifest.Result result = unzipStream(bundleURL, bundleEntryName, zipFiles, keepBundle);
+                if (result.streamError == null) {
+                    return completeInstall(logger);
+                }
+                // the entries can't be unzipped before the central directory is read
+                logger.println(clusterNode.getNodeName() + ": Can't unzip " + bundleURL
+                        + " while downloading (" + result.streamError + ")");
+                // the whole bundle was still copied to the cache, if it could be cached, or kept
+                cachedBundle = bundleCache.lookup(bundleEntryName);
+                if (cachedBundle == null) {
+                    cachedBundle = streamedBundle;
+                }
+                zipFiles.add(0, cachedBundle != null ? cachedBundle : download(bundleURL, downloadedFiles));
             }
+            unzip(zipFiles, logger);
+            return completeInstall(logger);
         } catch (IOException e) {
             e.printStackTrace(logger);
             return false;
         } catch (InterruptedException e) {
             e.printStackTrace(logger);
             return false;
+        } finally {
+            // we don't need the .zip files after their contents are unzipped
+            for (FilePath zipFile : downloadedFiles) {
+                try {
+                    zipFile.delete();
+                } catch (IOException e) {
+                    e.printStackTrace(logger);
+                } catch (InterruptedException e) {
+                    e.printStackTrace(logger);
+                }
+            }
         }
-        return true;
+    }
+
+    private FilePath download(URL zipBundleURL, List<FilePath> downloadedFiles) throws IOException, InterruptedException {
+        println(false, "Copying the file: " + zipBundleURL);
+        FilePath zipFile = new FilePath(projectWorkSpace, new File(zipBundleURL.getPath()).getName());
+        downloadedFiles.add(zipFile);
+        zipFile.copyFrom(zipBundleURL);
+        return zipFile;
     }
 
     /**
-     * Get .zip bundle from the specified URL and unzip the file on the slave computer.
+     * Install GlassFish from the .zip bundle already copied to this node.
+     * @param out where the progress and errors are reported
      */
-    public boolean remoteUnzip(boolean verbose, String ZipBundleURLString) {
-
+    public boolean installGlassFishFromZipFile(FilePath zipFile, PrintStream out) {
         try {
-            // download / copy the file
-            URL ZipBundleURL = new URL(ZipBundleURLString);
-            String fileName = new File(ZipBundleURL.getPath()).getName();
-            println(verbose, "Copying the file: " + ZipBundleURLString);
-            FilePath zipFile = new FilePath(projectWorkSpace, fileName);
-            zipFile.copyFrom(ZipBundleURL);
+            println(false, "Unzipping " + zipFile.getName() + " at: " + installDirStr);
+            unzip(Collections.singletonList(zipFile), out);
+            return completeInstall(out);
+        } catch (IOException e) {
+            e.printStackTrace(out);
+            return false;
+        } catch (InterruptedException e) {
+            e.printStackTrace(out);
+            return false;
+        }
+    }
 
-            println(verbose, "Unzipping " + fileName + " at: " + installDirStr);
+    // unzip only the files which differ from the installation manifest
+    private GlassFishInstallManifest.Result unzip(List<FilePath> zipFiles, PrintStream out)
+            throws IOException, InterruptedException {
+        GlassFishInstallManifest.Result result = projectWorkSpace.act(
+                new GlassFishInstallManifest(getRemotePaths(zipFiles), installDir.getName(), getKeptFiles()));
+        out.println(clusterNode.getNodeName() + ": " + installDirStr + ": " + result);
+        return result;
+    }
 
-            zipFile.unzip(projectWorkSpace);
+    // unzip the bundle while it is downloaded from the URL, then the zipFiles on top of it.
+    // The bundle is copied into the cache at the same time, if it can be cached,
+    // otherwise into the workspace if keepBundle is set.
+    private GlassFishInstallManifest.Result unzipStream(URL bundleURL, String entryName, List<FilePath> zipFiles,
+            boolean keepBundle) throws IOException, InterruptedException {
+        println(false, "Unzipping " + bundleURL + " at: " + installDirStr);
+        GlassFishInstallManifest.Result result;
+        FilePath part = bundleCache.createPart(entryName);
+        FilePath copy = part;
+        if (part == null && keepBundle) {
+            copy = new FilePath(projectWorkSpace, new File(bundleURL.getPath()).getName());
+        }
+        String bundleCopy = copy == null ? null : copy.getRemote();
+        InputStream in = bundleURL.openStream();
+        try {
+            if (!projectWorkSpace.isRemote()) {
+                result = projectWorkSpace.act(new GlassFishInstallManifest(null, in, bundleCopy,
+                        getRemotePaths(zipFiles), installDir.getName(), getKeptFiles()));
+            } else {
+                Pipe pipe = Pipe.createLocalToRemote();
+                Future<GlassFishInstallManifest.Result> future = projectWorkSpace.actAsync(new GlassFishInstallManifest(pipe, null,
+                        bundleCopy, getRemotePaths(zipFiles), installDir.getName(), getKeptFiles()));
+                try {
+                    GlassFishInstallManifest.send(in, pipe.getOut(), future);
+                } catch (IOException e) {
+                    // the node fails as the bundle ends early
+                    e.printStackTrace(logger);
+                }
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    throw (IOException) new IOException("Failed to unzip " + bundleURL).initCause(e.getCause());
+                }
+            }
+            if (part != null && result.bundleChecksum != null) {
+                bundleCache.commit(part, entryName, result.bundleChecksum);
+            } else if (copy != null && result.bundleChecksum != null) {
+                streamedBundle = copy;
+                streamedBundleChecksum = result.bundleChecksum;
+            }
+        } finally {
+            in.close();
+            if (copy != null && copy != streamedBundle && copy.exists()) {
+                copy.delete();
+            }
+        }
+        if (result.streamError == null) {
+            logger.println(clusterNode.getNodeName() + ": " + installDirStr + ": " + result);
+        }
+        return result;
+    }
 
-            // we don't need the .zip file after it's contents are unzipped
-            zipFile.delete();
+    private static ArrayList<String> getRemotePaths(List<FilePath> zipFiles) {
+        ArrayList<String> zipFilePaths = new ArrayList<String>();
+        for (FilePath zipFile : zipFiles) {
+            zipFilePaths.add(zipFile.getRemote());
+        }
+        return zipFilePaths;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace(logger);
-            //logger.println("IOException !");
-            return false;
-        } catch (InterruptedException e) {
-            e.printStackTrace(logger);
-            //logger.println("InterruptedException!");
+    // created after the unzip, see createGFPassWordFile()
+    private HashSet<String> getKeptFiles() {
+        HashSet<String> keep = new HashSet<String>();
+        keep.add(installDir.getName() + "/glassfish/config/passwordfile");
+        return keep;
+    }
+
+    // the commands in the bin directories were made executable by GlassFishInstallManifest, on the node
+    private boolean completeInstall(PrintStream out) {
+        // password file may be required for executing asadmin command
+        String CMD = "createGFPassWordFile()";
+        if (!createGFPassWordFile(build, out)) {
+            out.println("ERROR: " + CMD);
             return false;
         }
+
         return true;
     }
 
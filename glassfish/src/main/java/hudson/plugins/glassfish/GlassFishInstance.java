@@ -116,36 +116,44 @@ public class GlassFishInstance {
 
     }
 
-    // Try to allocate the port. If the port is not available, update the port
-    // value to the available port.
-    public void updatePerPortAvailability() {
-        String str = instanceName + " " + nodeName + ":";
-        String portName = str + "http_listener_port";
-        http_listener_port = clusterNode.getAvailablePort(http_listener_port, portName);
-
-        portName = str + "http_ssl_listener_port";
-        http_ssl_listener_port = clusterNode.getAvailablePort(http_ssl_listener_port, portName);
-
-        portName = str + "iiop_listener_port";
-        iiop_listener_port = clusterNode.getAvailablePort(iiop_listener_port, portName);
-
-        portName = str + "iiop_ssl_listener_port";
-        iiop_ssl_listener_port = clusterNode.getAvailablePort(iiop_ssl_listener_port, portName);
+    // number of ports used by each instance
+    static final int NUM_PORTS = 9;
 
-        portName = str + "iiop_ssl_mutualauth_port";
-        iiop_ssl_mutualauth_port = clusterNode.getAvailablePort(iiop_ssl_mutualauth_port, portName);
-
-        portName = str + "jmx_system_connector_port";
-        jmx_system_connector_port = clusterNode.getAvailablePort(jmx_system_connector_port, portName);
-
-        portName = str + "jms_provider_port";
-        jms_provider_port = clusterNode.getAvailablePort(jms_provider_port, portName);
+    // preferred (or allocated) ports, in the order used by setPorts()
+    int[] getPorts() {
+        return new int[]{http_listener_port, http_ssl_listener_port,
+                    iiop_listener_port, iiop_ssl_listener_port, iiop_ssl_mutualauth_port,
+                    jmx_system_connector_port, jms_provider_port, asadmin_listener_port,
+                    gms_listener_port};
+    }
 
-        portName = str + "asadmin_listener_port";
-        asadmin_listener_port = clusterNode.getAvailablePort(asadmin_listener_port, portName);
+    void setPorts(int[] ports, int offset) {
+        http_listener_port = ports[offset++];
+        http_ssl_listener_port = ports[offset++];
+        iiop_listener_port = ports[offset++];
+        iiop_ssl_listener_port = ports[offset++];
+        iiop_ssl_mutualauth_port = ports[offset++];
+        jmx_system_connector_port = ports[offset++];
+        jms_provider_port = ports[offset++];
+        asadmin_listener_port = ports[offset++];
+        gms_listener_port = ports[offset++];
+    }
 
-        portName = str + "gms_listener_port";
-        gms_listener_port = clusterNode.getAvailablePort(gms_listener_port, portName);
+    // Try to allocate the ports. If a port is not available, update the port
+    // value to the available port.
+    // To allocate the ports for all the instances on a node at once, see
+    // GlassFishCluster.updateClusterMapPerPortAvailability()
+    public void updatePerPortAvailability() {
+        int[] preferred = getPorts();
+        try {
+            int[] ports = GlassFishPortAllocator.allocate(clusterNode.getNode(), GlassFishClusterNode.build, preferred);
+            setPorts(ports, 0);
+            logger.println(instanceName + " " + nodeName + ": " + GlassFishPortAllocator.toString(preferred, ports));
+        } catch (IOException e) {
+            e.printStackTrace(logger);
+        } catch (InterruptedException e) {
+            e.printStackTrace(logger);
+        }
     }
 
     GlassFishClusterNode getClusterNode() {
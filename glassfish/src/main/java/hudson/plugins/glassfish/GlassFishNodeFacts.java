@@ -0,0 +1,192 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 1997-2010 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package hudson.plugins.glassfish;
+
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Facts about a node (OS, architecture, host name, CPUs, free memory and disk, Java version),
+ * collected by a single remote call and cached per node, so that the cluster components
+ * don't have to ask the node for each of them separately.
+ */
+final class GlassFishNodeFacts implements Serializable {
+
+    // how long the facts are reused, free memory and disk space are only a hint anyway
+    static final long TTL = Long.getLong(GlassFishNodeFacts.class.getName() + ".ttlSeconds", 600) * 1000;
+    private static final Map<String, GlassFishNodeFacts> cache = new ConcurrentHashMap<String, GlassFishNodeFacts>();
+    // a failed probe is retried this many times, one second apart
+    static final int PROBE_RETRIES = Integer.getInteger(GlassFishNodeFacts.class.getName() + ".probeRetries", 2);
+    final String osName, osArch, hostName, javaVersion;
+    final int cpus;
+    // bytes, -1 if not known
+    final long freeMemory, freeDisk;
+    private transient long timestamp;
+    // facts are only valid as long as the node stays connected
+    private transient VirtualChannel channel;
+
+    private GlassFishNodeFacts(String osName, String osArch, String hostName, String javaVersion,
+            int cpus, long freeMemory, long freeDisk) {
+        this.osName = osName;
+        this.osArch = osArch;
+        this.hostName = hostName;
+        this.javaVersion = javaVersion;
+        this.cpus = cpus;
+        this.freeMemory = freeMemory;
+        this.freeDisk = freeDisk;
+    }
+
+    /**
+     * Returns the cached facts about the node, probing the node if they are older than TTL.
+     * @return null if the node can't be probed (e.g. it's offline), even after PROBE_RETRIES retries
+     */
+    static GlassFishNodeFacts get(Node node, PrintStream logger) {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            return null;
+        }
+        GlassFishNodeFacts facts = cache.get(node.getNodeName());
+        if (facts != null && facts.channel == channel && System.currentTimeMillis() - facts.timestamp < TTL) {
+            return facts;
+        }
+
+        FilePath rootPath = node.getRootPath();
+        for (int retries = PROBE_RETRIES;; retries--) {
+            try {
+                facts = channel.call(new Probe(rootPath == null ? null : rootPath.getRemote()));
+                break;
+            } catch (IOException e) {
+                if (retries <= 0) {
+                    e.printStackTrace(logger);
+                    return null;
+                }
+                logger.println(node.getNodeName() + ": Couldn't probe the node (" + e + "), retrying");
+            } catch (InterruptedException e) {
+                e.printStackTrace(logger);
+                return null;
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace(logger);
+                return null;
+            }
+        }
+        facts.timestamp = System.currentTimeMillis();
+        facts.channel = channel;
+        cache.put(node.getNodeName(), facts);
+        return facts;
+    }
+
+    boolean isWindows() {
+        return getOS().startsWith("windows");
+    }
+
+    // lower case os.name
+    String getOS() {
+        return osName.toLowerCase();
+    }
+
+    @Override
+    public String toString() {
+        return "os.name=" + osName + ", os.arch=" + osArch + ", host=" + hostName + ", java.version=" + javaVersion
+                + ", cpus=" + cpus + ", free memory=" + toMB(freeMemory) + ", free disk=" + toMB(freeDisk);
+    }
+
+    private static String toMB(long bytes) {
+        return bytes < 0 ? "?" : (bytes / (1024 * 1024)) + "MB";
+    }
+
+    private static final class Probe implements Callable<GlassFishNodeFacts, IOException> {
+
+        private final String rootPath;
+
+        Probe(String rootPath) {
+            this.rootPath = rootPath;
+        }
+
+        public GlassFishNodeFacts call() throws IOException {
+            String hostName;
+            try {
+                hostName = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                hostName = "";
+            }
+            return new GlassFishNodeFacts(System.getProperty("os.name"), System.getProperty("os.arch"), hostName,
+                    System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(),
+                    getFreeMemory(), getFreeDisk());
+        }
+
+        // free physical memory, only available from the Sun JVM
+        private long getFreeMemory() {
+            try {
+                OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+                if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                    return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+                }
+            } catch (LinkageError e) {
+                // not a Sun JVM
+            }
+            return -1;
+        }
+
+        private long getFreeDisk() {
+            if (rootPath == null) {
+                return -1;
+            }
+            try {
+                return new File(rootPath).getUsableSpace();
+            } catch (LinkageError e) {
+                // Java 5
+                return -1;
+            }
+        }
+        private static final long serialVersionUID = 1L;
+    }
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,281 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 1997-2010 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package hudson.plugins.glassfish;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.hudson.plugins.port_allocator.PortAllocationManager;
+
+/**
+ * Allocates the ports for all the instances on a node at once.
+ * Availability of the whole block of preferred ports is checked by a single remote call,
+ * which also picks a random free port for each preferred port that is in use.
+ * The allocated ports are reserved for the build, so that concurrent builds on the
+ * same node get different ports. The reservations are dropped once the build is over.
+ * Builds are referred to by name, so the reservations don't keep the builds in memory.
+ * <p>
+ * The ports allocated through the port-allocator plugin's {@link PortAllocationManager}
+ * are excluded as well, and the ports allocated here are registered with it in turn,
+ * so that jobs using either one don't get each other's ports.
+ * <p>
+ * Note: as with {@link PortAllocationManager}, the ports are only available at the time of the check.
+ */
+final class GlassFishPortAllocator {
+
+    // node name -> port -> build, see getId()
+    private static final Map<String, Map<Integer, String>> reservations = new HashMap<String, Map<Integer, String>>();
+
+    private static final Logger LOGGER = Logger.getLogger(GlassFishPortAllocator.class.getName());
+
+    private GlassFishPortAllocator() {
+    }
+
+    /**
+     * @param preferred preferred port numbers
+     * @return allocated ports, same order as the preferred ports. A port differs from the
+     *  preferred one if that was in use, or already reserved by another build.
+     */
+    static int[] allocate(Node node, AbstractBuild build, int[] preferred) throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException(node.getNodeName() + " is offline");
+        }
+        String owner = getId(build);
+        PortAllocationManager pam = PortAllocationManager.getManager(node.toComputer());
+        // the remote call is made under the lock of the node only.
+        // the manager is locked first, as it is when release() frees the ports
+        Map<Integer, String> reserved = getReservations(node.getNodeName());
+        synchronized (pam) {
+            synchronized (reserved) {
+                Map<Integer, AbstractBuild> managed = getAllocations(pam);
+                Set<Integer> excluded = new HashSet<Integer>();
+                for (Map.Entry<Integer, String> e : reserved.entrySet()) {
+                    if (!e.getValue().equals(owner)) {
+                        excluded.add(e.getKey());
+                    }
+                }
+                for (Map.Entry<Integer, AbstractBuild> e : managed.entrySet()) {
+                    if (e.getValue() != build) {
+                        excluded.add(e.getKey());
+                    }
+                }
+
+                int[] ports = channel.call(new Probe(preferred, excluded));
+                for (int port : ports) {
+                    reserved.put(port, owner);
+                    if (!managed.containsKey(port)) {
+                        // not held by anyone, so this doesn't wait
+                        pam.allocate(build, port);
+                    }
+                }
+                return ports;
+            }
+        }
+    }
+
+    /**
+     * Drops the reservations of the build, on all the nodes, and frees the ports
+     * in their {@link PortAllocationManager}s.
+     */
+    static void release(AbstractBuild build) {
+        String owner = getId(build);
+        Map<String, Map<Integer, String>> nodes;
+        synchronized (GlassFishPortAllocator.class) {
+            nodes = new HashMap<String, Map<Integer, String>>(reservations);
+        }
+        for (Map.Entry<String, Map<Integer, String>> node : nodes.entrySet()) {
+            List<Integer> ports = new ArrayList<Integer>();
+            Map<Integer, String> reserved = node.getValue();
+            synchronized (reserved) {
+                for (Iterator<Map.Entry<Integer, String>> it = reserved.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<Integer, String> e = it.next();
+                    if (e.getValue().equals(owner)) {
+                        ports.add(e.getKey());
+                        it.remove();
+                    }
+                }
+            }
+            // not under the lock of the reservations, see allocate()
+            Computer c = ports.isEmpty() ? null : Hudson.getInstance().getComputer(node.getKey());
+            if (c != null) {
+                PortAllocationManager pam = PortAllocationManager.getManager(c);
+                for (int port : ports) {
+                    pam.free(port);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the ports currently allocated by the manager. It has no accessor for them,
+     * so they are read from its field. If that fails, such as with another version
+     * of the plugin, none are returned.
+     * Must be called under the lock of the manager.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, AbstractBuild> getAllocations(PortAllocationManager pam) {
+        try {
+            Field f = PortAllocationManager.class.getDeclaredField("ports");
+            f.setAccessible(true);
+            return new HashMap<Integer, AbstractBuild>((Map<Integer, AbstractBuild>) f.get(pam));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read the ports allocated by the port-allocator plugin", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private static String getId(AbstractBuild build) {
+        return build.getProject().getFullName() + "#" + build.getNumber();
+    }
+
+    private static synchronized Map<Integer, String> getReservations(String nodeName) {
+        Map<Integer, String> reserved = reservations.get(nodeName);
+        if (reserved == null) {
+            reserved = new HashMap<Integer, String>();
+            reservations.put(nodeName, reserved);
+        }
+        return reserved;
+    }
+
+    /**
+     * Releases the ports of each build once it's over.
+     */
+    @Extension
+    public static final class ReleaseOnCompletion extends RunListener<AbstractBuild> {
+
+        public ReleaseOnCompletion() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild build, TaskListener listener) {
+            release(build);
+        }
+    }
+
+    /**
+     * Summary of the allocation, listing only the ports which differ from the preferred ones.
+     */
+    static String toString(int[] preferred, int[] ports) {
+        StringBuilder changed = new StringBuilder();
+        int count = 0;
+        for (int i = 0; i < ports.length; i++) {
+            if (ports[i] != preferred[i]) {
+                changed.append(count++ == 0 ? "" : ", ").append(preferred[i]).append("->").append(ports[i]);
+            }
+        }
+        return ports.length + " ports allocated" + (count == 0 ? "" : ", " + count + " not available: " + changed);
+    }
+
+    /**
+     * Checks the preferred ports on the node. Each port which can't be bound (or is excluded,
+     * or requested twice) is replaced by a port chosen by the OS.
+     */
+    private static final class Probe implements Callable<int[], IOException> {
+
+        private final int[] preferred;
+        private final Set<Integer> excluded;
+
+        Probe(int[] preferred, Set<Integer> excluded) {
+            this.preferred = preferred;
+            this.excluded = excluded;
+        }
+
+        public int[] call() throws IOException {
+            int[] ports = new int[preferred.length];
+            Set<Integer> taken = new HashSet<Integer>(excluded);
+            List<Integer> unavailable = new ArrayList<Integer>();
+            for (int i = 0; i < preferred.length; i++) {
+                if (taken.add(preferred[i]) && isAvailable(preferred[i])) {
+                    ports[i] = preferred[i];
+                } else {
+                    unavailable.add(i);
+                }
+            }
+
+            // keep the random ports bound until all of them are chosen, so that they are all different
+            List<ServerSocket> sockets = new ArrayList<ServerSocket>();
+            try {
+                for (int i : unavailable) {
+                    int port;
+                    do {
+                        ServerSocket socket = new ServerSocket(0);
+                        sockets.add(socket);
+                        port = socket.getLocalPort();
+                    } while (!taken.add(port));
+                    ports[i] = port;
+                }
+            } finally {
+                for (ServerSocket socket : sockets) {
+                    socket.close();
+                }
+            }
+            return ports;
+        }
+
+        private static boolean isAvailable(int port) {
+            try {
+                new ServerSocket(port).close();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 1997-2010 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package hudson.plugins.glassfish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a set of per-node tasks (install, asadmin commands etc.) concurrently.
+ * At most maxConcurrent tasks run at the same time across the cluster,
+ * and at most maxPerNode of them on any single node.
+ * Each task writes to its own buffer, which is copied to the build log,
+ * prefixed with the task name, once the task is done.
+ */
+public class GlassFishTaskRunner {
+
+    /**
+     * Unit of work executed on a cluster node.
+     */
+    public static abstract class Task {
+
+        final String name;
+        final GlassFishClusterNode clusterNode;
+        // set once the task is picked up by a pool thread
+        volatile boolean started;
+
+        public Task(String name, GlassFishClusterNode clusterNode) {
+            this.name = name;
+            this.clusterNode = clusterNode;
+        }
+
+        /**
+         * @param out task output, printed in the build log once the task is done.
+         * @return true on success
+         */
+        abstract boolean run(PrintStream out) throws InterruptedException;
+
+        /**
+         * Called for a task that started, but failed or was cancelled, when the runner stops on failure
+         * or is interrupted. Tasks cancelled before they started have nothing to clean up.
+         */
+        void cleanup(PrintStream out) {
+        }
+    }
+
+    private PrintStream logger;
+    private int maxConcurrent, maxPerNode;
+
+    public GlassFishTaskRunner(PrintStream logger, int maxConcurrent, int maxPerNode) {
+        this.logger = logger;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPerNode = Math.max(1, maxPerNode);
+    }
+
+    /**
+     * Run all the tasks, and wait for them to complete.
+     * @param stopOnFailure if true, cancel the remaining tasks as soon as one of them fails,
+     *  and clean up the ones that started but didn't succeed. Otherwise, keep going (best effort).
+     * @return outcome of each task by its name, in the order of the given tasks.
+     *  Cancelled tasks are reported as failed. If the calling thread is interrupted, the tasks
+     *  are cancelled and cleaned up as on failure, and the thread is left interrupted.
+     */
+    Map<String, Boolean> runAll(List<? extends Task> tasks, boolean stopOnFailure) {
+        final Map<String, Boolean> outcome = new LinkedHashMap<String, Boolean>();
+        if (tasks.isEmpty()) {
+            return outcome;
+        }
+
+        // tasks of each node that haven't been handed to the pool yet, and the number of those that have.
+        // a task is only submitted once its node has a free slot, so that the pool threads
+        // never sit waiting for a busy node while tasks of other nodes could run.
+        final Map<String, LinkedList<Task>> queued = new HashMap<String, LinkedList<Task>>();
+        final Map<String, Integer> running = new HashMap<String, Integer>();
+        for (Task t : tasks) {
+            outcome.put(t.name, false);
+            String node = t.clusterNode.getNodeName();
+            if (!queued.containsKey(node)) {
+                queued.put(node, new LinkedList<Task>());
+                running.put(node, 0);
+            }
+            queued.get(node).add(t);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(maxConcurrent, tasks.size()), new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GlassFish cluster task");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        CompletionService<Boolean> done = new ExecutorCompletionService<Boolean>(pool);
+        Map<Future<Boolean>, Task> futures = new HashMap<Future<Boolean>, Task>();
+
+        boolean stopped = false;
+        try {
+            for (String node : queued.keySet()) {
+                while (running.get(node) < maxPerNode && !queued.get(node).isEmpty()) {
+                    submitNext(node, queued, running, done, futures);
+                }
+            }
+
+            boolean failed = false;
+            int inFlight = futures.size();
+            while (inFlight > 0) {
+                Future<Boolean> f = done.take();
+                inFlight--;
+                Task t = futures.get(f);
+                boolean ok = false;
+                try {
+                    ok = f.get();
+                } catch (CancellationException e) {
+                    logger.println(GlassFishPluginUtils.getLogDate() + t.name + ": cancelled");
+                } catch (ExecutionException e) {
+                    logger.println(GlassFishPluginUtils.getLogDate() + t.name + ": ERROR");
+                    e.getCause().printStackTrace(logger);
+                }
+                outcome.put(t.name, ok);
+
+                if (!ok && stopOnFailure && !failed) {
+                    failed = true;
+                    cancel(queued, futures);
+                }
+
+                String node = t.clusterNode.getNodeName();
+                running.put(node, running.get(node) - 1);
+                if (submitNext(node, queued, running, done, futures)) {
+                    inFlight++;
+                }
+            }
+
+            if (failed) {
+                stopped = true;
+                stop(pool, tasks, outcome);
+            }
+        } catch (InterruptedException e) {
+            // the build is aborted
+            logger.println(GlassFishPluginUtils.getLogDate() + "Interrupted, cancelling the tasks");
+            cancel(queued, futures);
+            if (!stopped) {
+                try {
+                    stop(pool, tasks, outcome);
+                } catch (InterruptedException again) {
+                    // cleaned up without waiting any longer
+                }
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        return outcome;
+    }
+
+    // cancel the tasks handed to the pool, and drop the ones still queued
+    private void cancel(Map<String, LinkedList<Task>> queued, Map<Future<Boolean>, Task> futures) {
+        for (Future<Boolean> f : futures.keySet()) {
+            f.cancel(true);
+        }
+        for (List<Task> q : queued.values()) {
+            for (Task n : q) {
+                logger.println(GlassFishPluginUtils.getLogDate() + n.name + ": cancelled");
+            }
+            q.clear();
+        }
+    }
+
+    // let the cancelled tasks wind down, then clean up after the ones that started but didn't succeed.
+    // They are cleaned up even if the wait is interrupted.
+    private void stop(ExecutorService pool, List<? extends Task> tasks, Map<String, Boolean> outcome)
+            throws InterruptedException {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(5, TimeUnit.MINUTES);
+        } finally {
+            for (Task t : tasks) {
+                if (t.started && !outcome.get(t.name)) {
+                    t.cleanup(logger);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the next queued task of the node to the pool.
+     * @return false if the node has no more tasks.
+     */
+    private boolean submitNext(String node, Map<String, LinkedList<Task>> queued, Map<String, Integer> running,
+            CompletionService<Boolean> done, Map<Future<Boolean>, Task> futures) {
+        final Task t = queued.get(node).poll();
+        if (t == null) {
+            return false;
+        }
+        futures.put(done.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws Exception {
+                return execute(t);
+            }
+        }), t);
+        running.put(node, running.get(node) + 1);
+        return true;
+    }
+
+    private boolean execute(Task t) throws InterruptedException {
+        t.started = true;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buf, true);
+        long start = System.currentTimeMillis();
+        logger.println(GlassFishPluginUtils.getLogDate() + t.name + ": started");
+        boolean ok = false;
+        try {
+            ok = t.run(out);
+            return ok;
+        } finally {
+            out.flush();
+            flush(t.name, buf);
+            logger.println(GlassFishPluginUtils.getLogDate() + t.name + ": "
+                    + (ok ? "done" : "FAILED") + " (" + (System.currentTimeMillis() - start) / 1000 + "s)");
+        }
+    }
+
+    // copy the task output to the build log, one line at a time, each line prefixed with the task name
+    private void flush(String name, ByteArrayOutputStream buf) {
+        String str = buf.toString();
+        if (str.length() == 0) {
+            return;
+        }
+        synchronized (logger) {
+            for (String line : str.split("\r?\n")) {
+                logger.println("[" + name + "] " + line);
+            }
+        }
+    }
+
+    /**
+     * @return true if all the tasks succeeded.
+     */
+    static boolean allSucceeded(Map<String, Boolean> outcome) {
+        return !outcome.containsValue(Boolean.FALSE);
+    }
+
+    /**
+     * @return names of the tasks that did not succeed.
+     */
+    static List<String> failed(Map<String, Boolean> outcome) {
+        List<String> r = new ArrayList<String>();
+        for (Map.Entry<String, Boolean> e : outcome.entrySet()) {
+            if (!e.getValue()) {
+                r.add(e.getKey());
+            }
+        }
+        return r;
+    }
+}
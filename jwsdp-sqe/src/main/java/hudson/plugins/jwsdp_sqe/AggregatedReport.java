@@ -0,0 +1,108 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Report} that merges the latest SQE reports of several jobs.
+ *
+ * <p>
+ * Suites with the same id in more than one job are merged into one {@link Suite}.
+ * If the same test shows up in more than one of them, the first job in the list wins.
+ *
+ * <p>
+ * Every suite and test is owned by the build it comes from. The previous result
+ * merges the previous SQE result of each of those builds, so the trend of the
+ * aggregation goes back as far as its sources do.
+ */
+public class AggregatedReport extends Report {
+    /**
+     * Builds whose reports are merged into this one, in the configured order. Never empty.
+     */
+    private final List<AbstractBuild<?,?>> sources;
+
+    /**
+     * Build each suite, or each test of a merged suite, comes from.
+     */
+    private final Map<TestObject<?>,AbstractBuild<?,?>> origins = new IdentityHashMap<TestObject<?>,AbstractBuild<?,?>>();
+
+    private volatile SoftReference<AggregatedReport> previous;
+
+    AggregatedReport(List<AbstractBuild<?,?>> sources) {
+        super(null);
+        this.sources = sources;
+        setName("Aggregated SQE Test Result");
+    }
+
+    public List<AbstractBuild<?,?>> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * Adds a suite or a test that comes from the given build.
+     */
+    void add(TestCollection<?,?> parent, TestObject<?> t, AbstractBuild<?,?> origin) {
+        ((TestCollection)parent).add(t);
+        origins.put(t,origin);
+    }
+
+    /**
+     * The most recent of the source builds. Used for the side panel and for time stamps.
+     */
+    @Override
+    public AbstractBuild getOwner() {
+        AbstractBuild<?,?> r = null;
+        for (AbstractBuild<?,?> b : sources)
+            if(r==null || b.getTimeInMillis()>r.getTimeInMillis())
+                r = b;
+        return r;
+    }
+
+    @Override
+    AbstractBuild getOwner(TestObject<?> t) {
+        for (; t!=null; t=t.parent) {
+            AbstractBuild<?,?> b = origins.get(t);
+            if(b!=null)     return b;
+        }
+        return getOwner();
+    }
+
+    /**
+     * Merges the SQE results that precede those of the source builds.
+     *
+     * @return null
+     *      if none of the source builds has an earlier SQE result.
+     */
+    @Override
+    public AggregatedReport getPreviousResult() {
+        SoftReference<AggregatedReport> ref = previous;
+        AggregatedReport r = ref!=null ? ref.get() : null;
+        if(r!=null)     return r;
+
+        List<AbstractBuild<?,?>> prev = new ArrayList<AbstractBuild<?,?>>();
+        for (AbstractBuild<?,?> b : sources) {
+            for (AbstractBuild<?,?> p=b.getPreviousBuild(); p!=null; p=p.getPreviousBuild()) {
+                if(p.getAction(SQETestAction.class)!=null) {
+                    prev.add(p);
+                    break;
+                }
+            }
+        }
+        if(prev.isEmpty())  return null;
+
+        r = SQEAggregationAction.merge(prev);
+        previous = new SoftReference<AggregatedReport>(r);
+        return r;
+    }
+
+    @Override
+    protected boolean considersTestAsTestObject() {
+        return false;
+    }
+}
@@ -0,0 +1,66 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * CLI version of {@link HistoryExportAction}.
+ */
+@Extension
+public class ExportHistoryCommand extends CLICommand {
+    @Argument(metaVar="JOB",usage="Name of the job",required=true)
+    public String job;
+
+    @Option(name="-from",usage="First build number. Defaults to the first build.")
+    public int from = 1;
+
+    @Option(name="-to",usage="Last build number. Defaults to the last build.")
+    public int to = -1;
+
+    @Option(name="-format",usage="'ndjson' (default) or 'csv'")
+    public String format;
+
+    @Option(name="-level",usage="'test' (default) for one row per test, 'suite' for one row per suite")
+    public String level;
+
+    @Override
+    public String getName() {
+        // the default would be "export-history", which doesn't say whose history it is
+        return "sqe-export-history";
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Exports the SQE test history of a job";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        AbstractProject<?,?> p = Hudson.getInstance().getItemByFullName(job,AbstractProject.class);
+        if(p==null) {
+            stderr.println("No such job: "+job);
+            return -1;
+        }
+        // getItemByFullName doesn't filter by permission
+        p.checkPermission(Item.READ);
+        if(to<0) {
+            AbstractBuild<?,?> last = p.getLastBuild();
+            to = last==null ? 0 : last.getNumber();
+        }
+
+        Writer w = new OutputStreamWriter(stdout,"UTF-8");
+        new HistoryExporter(p,HistoryExporter.parseFormat(format),HistoryExporter.parseLevel(level))
+                .write(from,to,w);
+        w.flush();
+        return 0;
+    }
+}
@@ -0,0 +1,161 @@
+package hudson.plugins.jwsdp_sqe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of failed {@link TestObject}s whose status messages look the same
+ * once the volatile bits (numbers, timings, host names, ...) are taken out.
+ *
+ * <p>
+ * Computed once when the report is published and persisted with the build,
+ * so showing the clusters never requires the report to be loaded.
+ */
+public final class FailureCluster {
+    /**
+     * Normalized status message shared by all the members.
+     */
+    private final String signature;
+    /**
+     * Status message of the first member, as it appeared in the report.
+     */
+    private final String exampleMessage;
+    /**
+     * Paths (relative to the {@link Report}) of the first few members.
+     */
+    private final List<String> examples = new ArrayList<String>();
+    private int count;
+
+    FailureCluster(String signature, String exampleMessage) {
+        this.signature = signature;
+        this.exampleMessage = exampleMessage;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public String getExampleMessage() {
+        return exampleMessage;
+    }
+
+    public List<String> getExamples() {
+        return Collections.unmodifiableList(examples);
+    }
+
+    /**
+     * Number of failed tests in this cluster.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    private void add(TestObject<?> t) {
+        if(count++<MAX_EXAMPLES)
+            examples.add(t.getRelativePath());
+    }
+
+    /**
+     * Groups all the failed tests in the given report, largest cluster first.
+     *
+     * <p>
+     * This is a single pass over the tree with a hash lookup per failure,
+     * so it stays linear in the size of the report.
+     */
+    public static List<FailureCluster> compute(Report r) {
+        final Map<String,FailureCluster> clusters = new HashMap<String,FailureCluster>();
+        new TestVisitor() {
+            void visit(TestObject<?> t) {
+                if(t.getStatus()==Status.PASS)
+                    return;
+                String sig = normalize(t.getStatusMessage());
+                FailureCluster fc = clusters.get(sig);
+                if(fc==null)
+                    clusters.put(sig,fc=new FailureCluster(sig,truncate(t.getStatusMessage())));
+                fc.add(t);
+            }
+        }.walk(r);
+
+        List<FailureCluster> result = new ArrayList<FailureCluster>(clusters.values());
+        Collections.sort(result,new Comparator<FailureCluster>() {
+            public int compare(FailureCluster lhs, FailureCluster rhs) {
+                if(lhs.count!=rhs.count)
+                    return rhs.count-lhs.count;
+                return lhs.signature.compareTo(rhs.signature);
+            }
+        });
+        if(result.size()>MAX_CLUSTERS)
+            result = new ArrayList<FailureCluster>(result.subList(0,MAX_CLUSTERS));
+        return result;
+    }
+
+    /**
+     * Reduces a status message to its signature.
+     *
+     * <p>
+     * Tags are dropped, the text is lower-cased and split into words, and every word
+     * that contains a digit (counts, timings, ports, addresses, hash codes, ...)
+     * is replaced by '#'. Only the first {@link #MAX_TOKENS} words are kept.
+     */
+    static String normalize(String msg) {
+        if(msg==null)
+            return "";
+        StringBuilder sig = new StringBuilder();
+        int tokens = 0;
+        int len = msg.length();
+        int i = 0;
+        while(i<len && tokens<MAX_TOKENS) {
+            char ch = msg.charAt(i);
+            if(ch=='<' && i+1<len && isTagStart(msg.charAt(i+1))) {
+                // skip over the tag. a '<' that isn't closed is just text, like in "took < 15 ms"
+                int end = msg.indexOf('>',i);
+                if(end>=0) {
+                    i = end+1;
+                    continue;
+                }
+            }
+            if(!Character.isLetterOrDigit(ch)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean hasDigit = false;
+            while(i<len && Character.isLetterOrDigit(msg.charAt(i))) {
+                hasDigit |= Character.isDigit(msg.charAt(i));
+                i++;
+            }
+            if(tokens++>0)
+                sig.append(' ');
+            if(hasDigit)
+                sig.append('#');
+            else
+                sig.append(msg.substring(start,i).toLowerCase());
+        }
+        return sig.toString();
+    }
+
+    private static boolean isTagStart(char ch) {
+        return Character.isLetter(ch) || ch=='/' || ch=='!';
+    }
+
+    private static String truncate(String msg) {
+        if(msg==null || msg.length()<=MAX_MESSAGE_LENGTH)
+            return msg;
+        return msg.substring(0,MAX_MESSAGE_LENGTH)+"...";
+    }
+
+    /**
+     * Number of words in a signature. Messages that agree this far are considered the same.
+     */
+    private static final int MAX_TOKENS = 32;
+    private static final int MAX_EXAMPLES = 5;
+    private static final int MAX_MESSAGE_LENGTH = 500;
+    /**
+     * Number of clusters kept with the build. The long tail of one-off failures isn't worth persisting.
+     */
+    private static final int MAX_CLUSTERS = 100;
+}
@@ -0,0 +1,51 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link Action} that shows the failed SQE tests grouped by {@link FailureCluster}.
+ *
+ * <p>
+ * The clusters are computed by {@link SQETestResultPublisher} and persisted
+ * in <tt>build.xml</tt> along with this action.
+ */
+public class FailureClusterAction implements Action {
+    public final AbstractBuild<?,?> owner;
+    private final List<FailureCluster> clusters;
+
+    FailureClusterAction(AbstractBuild<?,?> owner, List<FailureCluster> clusters) {
+        this.owner = owner;
+        this.clusters = clusters;
+    }
+
+    public List<FailureCluster> getClusters() {
+        if(clusters==null)
+            return Collections.emptyList();
+        return clusters;
+    }
+
+    /**
+     * URL of the SQE test report of the same build, relative to the context path.
+     */
+    public String getReportUrl() {
+        SQETestAction a = owner.getAction(SQETestAction.class);
+        if(a==null)     return null;
+        return owner.getUrl()+a.getUrlName()+'/';
+    }
+
+    public String getIconFileName() {
+        return "clipboard.gif";
+    }
+
+    public String getDisplayName() {
+        return "SQE Failure Clusters";
+    }
+
+    public String getUrlName() {
+        return "sqeFailureClusters";
+    }
+}
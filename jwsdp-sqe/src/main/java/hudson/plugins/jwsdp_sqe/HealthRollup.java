@@ -0,0 +1,151 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * {@link TestHealth} of every suite, test and test case of a build, keyed by
+ * {@link TestObject#getRelativePath()}.
+ *
+ * <p>
+ * Each build's rollup is computed from the previous build's rollup and its own report
+ * when the report is recorded, and stored next to the build as a binary file.
+ * Tests that haven't run for {@link TestHealth#MAX_WINDOW} builds are dropped.
+ */
+public final class HealthRollup {
+    private final Map<String,TestHealth> tests;
+
+    private HealthRollup(Map<String,TestHealth> tests) {
+        this.tests = tests;
+    }
+
+    /**
+     * Gets the health of the given test.
+     *
+     * @return null
+     *      if the test never ran.
+     */
+    public TestHealth get(TestObject<?> t) {
+        return tests.get(t.getRelativePath());
+    }
+
+    public int size() {
+        return tests.size();
+    }
+
+    /**
+     * Computes the rollup of a build from that of the previous build.
+     *
+     * @param prev
+     *      Rollup of the previous build, or null to start over.
+     */
+    static HealthRollup update(HealthRollup prev, final Report r, AbstractBuild<?,?> build) {
+        final int number = build.getNumber();
+        final long timestamp = build.getTimeInMillis();
+        final Map<String,TestHealth> tests = new HashMap<String,TestHealth>();
+        if(prev!=null) {
+            for (Entry<String,TestHealth> e : prev.tests.entrySet())
+                if(number-e.getValue().getLastBuild() < TestHealth.MAX_WINDOW)
+                    tests.put(e.getKey(),e.getValue());
+        }
+
+        new Object() {
+            void record(TestObject<?> t, String path) {
+                Boolean passed = outcome(t);
+                if(passed!=null) {
+                    // the previous build's instance is shared, so never modify it
+                    TestHealth old = tests.get(path);
+                    TestHealth h = old==null ? new TestHealth() : new TestHealth(old);
+                    h.record(passed,number,timestamp);
+                    tests.put(path,h);
+                }
+                if(t instanceof TestCollection)
+                    for (TestObject<?> c : ((TestCollection<?,?>)t).getChildren())
+                        record(c, path.length()==0 ? c.getId() : path+'/'+c.getId());
+            }
+        }.record(r,"");
+
+        return new HealthRollup(tests);
+    }
+
+    /**
+     * Whether the given object passed in this build, or null if it didn't run.
+     */
+    private static Boolean outcome(TestObject<?> t) {
+        if(t instanceof TestCollection && !((TestCollection<?,?>)t).getChildren().isEmpty()) {
+            if(t.getTotalCount()==0)    return null;
+            return t.getFailCount()==0;
+        }
+        Status s = t.getStatus();
+        if(s==null || s==Status.SKIP)   return null;
+        return s==Status.PASS;
+    }
+
+    /**
+     * Average pass rate of the runnable tests of the given report over the last {@code window} runs.
+     *
+     * @return -1
+     *      if none of them ever ran.
+     */
+    float getMeanPassRate(Report r, final int window) {
+        final float[] sum = new float[1];
+        final int[] n = new int[1];
+        new TestVisitor() {
+            void visit(TestObject<?> t) {
+                TestHealth h = get(t);
+                if(h==null || h.getRuns()==0)   return;
+                sum[0] += h.getPassRate(window);
+                n[0]++;
+            }
+        }.walk(r);
+        return n[0]==0 ? -1 : sum[0]/n[0];
+    }
+
+    static HealthRollup load(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if(in.readInt()!=VERSION)
+                throw new IOException("Unrecognized format: "+f);
+            int size = in.readInt();
+            Map<String,TestHealth> tests = new HashMap<String,TestHealth>(size*4/3+1);
+            for (int i=0; i<size; i++) {
+                String path = in.readUTF();
+                tests.put(path,TestHealth.read(in));
+            }
+            return new HealthRollup(tests);
+        } finally {
+            in.close();
+        }
+    }
+
+    void save(File f) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(tests.size());
+            for (Entry<String,TestHealth> e : tests.entrySet()) {
+                out.writeUTF(e.getKey());
+                e.getValue().write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static File getFile(AbstractBuild<?,?> build) {
+        return new File(build.getRootDir(),"sqe-health.bin");
+    }
+
+    private static final int VERSION = 1;
+}
@@ -0,0 +1,65 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Item;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Exposes {@link HistoryExporter} at <tt>job/NAME/sqeHistory/export</tt>.
+ *
+ * <p>
+ * Query parameters are "from" and "to" (build numbers, defaulting to all the builds),
+ * "format" ("ndjson" or "csv") and "level" ("test" or "suite").
+ */
+public class HistoryExportAction implements Action {
+    public final AbstractProject<?,?> project;
+
+    public HistoryExportAction(AbstractProject<?,?> project) {
+        this.project = project;
+    }
+
+    public void doExport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        project.checkPermission(Item.READ);
+        AbstractBuild<?,?> last = project.getLastBuild();
+        int to = parseInt(req.getParameter("to"),last==null ? 0 : last.getNumber());
+        int from = parseInt(req.getParameter("from"),1);
+
+        HistoryExporter exporter = new HistoryExporter(project,
+                HistoryExporter.parseFormat(req.getParameter("format")),
+                HistoryExporter.parseLevel(req.getParameter("level")));
+        rsp.setContentType(exporter.getContentType());
+        Writer w = rsp.getWriter();
+        exporter.write(from,to,w);
+        w.close();
+    }
+
+    private static int parseInt(String s, int defaultValue) {
+        if(s==null)     return defaultValue;
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * No link in the side panel. This is only for programs.
+     */
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "SQE Test History";
+    }
+
+    public String getUrlName() {
+        return "sqeHistory";
+    }
+}
@@ -0,0 +1,115 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import net.sf.json.util.JSONUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the SQE test history of a range of builds, one row at a time.
+ *
+ * <p>
+ * At the suite level the rows come from the {@link SuiteSummary}s persisted with the builds.
+ * At the test level each build's report is loaded in turn, written out and let go,
+ * so the memory use doesn't grow with the number of builds.
+ */
+public final class HistoryExporter {
+    public enum Format { CSV, NDJSON }
+    public enum Level { TEST, SUITE }
+
+    private final AbstractProject<?,?> project;
+    private final Format format;
+    private final Level level;
+
+    public HistoryExporter(AbstractProject<?,?> project, Format format, Level level) {
+        this.project = project;
+        this.format = format;
+        this.level = level;
+    }
+
+    public String getContentType() {
+        return format==Format.CSV ? "text/csv;charset=UTF-8" : "application/x-ndjson;charset=UTF-8";
+    }
+
+    /**
+     * Writes the history of builds #from to #to (inclusive), oldest first.
+     * Numbers past the last build are ignored.
+     */
+    public void write(int from, int to, final Writer w) throws IOException {
+        AbstractBuild<?,?> last = project.getLastBuild();
+        to = Math.min(to, last==null ? 0 : last.getNumber());
+
+        if(format==Format.CSV)
+            w.write(level==Level.TEST ? "build,id,status,messageHash\n" : "build,id,total,fail,skip\n");
+
+        for (int n=Math.max(1,from); n<=to; n++) {
+            AbstractBuild<?,?> b = project.getBuildByNumber(n);
+            if(b==null)     continue;
+            SQETestAction a = b.getAction(SQETestAction.class);
+            if(a==null)     continue;
+
+            final int number = b.getNumber();
+            if(level==Level.SUITE) {
+                for (SuiteSummary s : a.getSuites())
+                    row(w,number,s.getId(),s.getTotalCount(),s.getFailCount(),s.getSkipCount());
+            } else {
+                final IOException[] error = new IOException[1];
+                new TestVisitor() {
+                    void visit(TestObject<?> t) {
+                        if(error[0]!=null)  return;
+                        try {
+                            row(w,number,t.getRelativePath(),t.getStatus(),t.getStatusMessage());
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                    }
+                }.walk(a.getResult());
+                if(error[0]!=null)
+                    throw error[0];
+            }
+            w.flush();
+        }
+    }
+
+    private void row(Writer w, int build, String id, Status status, String message) throws IOException {
+        String st = status==null ? "" : status.name();
+        String hash = message==null ? "" : Integer.toHexString(message.hashCode());
+        if(format==Format.CSV) {
+            w.write(build+","+csv(id)+","+st+","+hash+"\n");
+        } else {
+            w.write("{\"build\":"+build+",\"id\":"+JSONUtils.quote(id)
+                    +",\"status\":"+JSONUtils.quote(st)+",\"messageHash\":"+JSONUtils.quote(hash)+"}\n");
+        }
+    }
+
+    private void row(Writer w, int build, String id, int total, int fail, int skip) throws IOException {
+        if(format==Format.CSV) {
+            w.write(build+","+csv(id)+","+total+","+fail+","+skip+"\n");
+        } else {
+            w.write("{\"build\":"+build+",\"id\":"+JSONUtils.quote(id)
+                    +",\"total\":"+total+",\"fail\":"+fail+",\"skip\":"+skip+"}\n");
+        }
+    }
+
+    private static String csv(String s) {
+        if(s.indexOf(',')<0 && s.indexOf('"')<0 && s.indexOf('\n')<0 && s.indexOf('\r')<0)
+            return s;
+        return '"'+s.replace("\"","\"\"")+'"';
+    }
+
+    /**
+     * Parses the "format" parameter, defaulting to {@link Format#NDJSON}.
+     */
+    public static Format parseFormat(String s) {
+        return "csv".equalsIgnoreCase(s) ? Format.CSV : Format.NDJSON;
+    }
+
+    /**
+     * Parses the "level" parameter, defaulting to {@link Level#TEST}.
+     */
+    public static Level parseLevel(String s) {
+        return "suite".equalsIgnoreCase(s) ? Level.SUITE : Level.TEST;
+    }
+}
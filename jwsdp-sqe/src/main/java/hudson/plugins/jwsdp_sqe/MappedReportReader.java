@@ -0,0 +1,625 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Functions;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Reads an archived SQE report straight from a memory-mapped file, without going through
+ * a general purpose XML parser. Builds exactly the same model as the Digester rules in
+ * {@link Report#add(org.xml.sax.InputSource)}.
+ *
+ * <p>
+ * Only the fixed SQE element set is recognized. Text is only decoded for the elements whose
+ * value ends up in the model, everything else is skipped over byte by byte. Reports are
+ * UTF-8 (or plain ASCII) in practice, so names can be matched on the raw bytes.
+ *
+ * <p>
+ * Anything this reader isn't sure to handle the way Digester would, such as a DOCTYPE,
+ * another encoding, an unknown entity or an attribute that Digester would map onto the
+ * model, makes {@link #read(Report, File)} return false without touching the report,
+ * and the caller then falls back to Digester. So do files too large to map.
+ *
+ * <p>
+ * On Windows a mapped file stays locked until the mapping is garbage collected, which
+ * would keep the build from being deleted, so the file is read into memory there instead.
+ */
+public final class MappedReportReader {
+    private final ByteBuffer buf;
+    private final boolean considerTestAsTestObject;
+    /**
+     * Receives what the file says about the report itself.
+     * Copied to the real report only once the whole file is read.
+     */
+    private final Report root;
+    /**
+     * Properties of {@link #root} set by the file.
+     */
+    private final Set<Element> rootProperties = EnumSet.noneOf(Element.class);
+
+    /**
+     * Names of the currently open elements, innermost last.
+     */
+    private final List<String> open = new ArrayList<String>();
+    /**
+     * Objects for the currently open testsuite/test/testcase elements, innermost last.
+     */
+    private final List<TestObject> stack = new ArrayList<TestObject>();
+    /**
+     * Children of the report, added only once the whole file is read.
+     */
+    private final List<TestObject> topLevel = new ArrayList<TestObject>();
+
+    /**
+     * Decoded body of the element being captured.
+     */
+    private byte[] text = new byte[256];
+    private int textLen;
+    private final AsciiText asciiText = new AsciiText();
+    /**
+     * Element depth at which text is being captured, or -1.
+     */
+    private int captureDepth = -1;
+    private long nodes;
+
+    private MappedReportReader(ByteBuffer buf, boolean considerTestAsTestObject) {
+        this.buf = buf;
+        this.root = new Report(null);
+        this.considerTestAsTestObject = considerTestAsTestObject;
+    }
+
+    /**
+     * Reads the report file into the given {@link Report}.
+     *
+     * @return false
+     *      if the file uses XML features this reader doesn't handle.
+     *      The report is left untouched in that case.
+     */
+    public static boolean read(Report r, File f) throws IOException, SAXException {
+        RandomAccessFile raf = new RandomAccessFile(f,"r");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if(size>Integer.MAX_VALUE)
+                return false;   // can't be mapped in one piece
+            ByteBuffer buf;
+            if(Functions.isWindows()) {
+                buf = ByteBuffer.allocate((int)size);
+                while(buf.hasRemaining())
+                    if(ch.read(buf)<0)
+                        return false;   // truncated while we were reading it
+                buf.flip();
+            } else {
+                buf = ch.map(FileChannel.MapMode.READ_ONLY,0,size);
+            }
+            long start = System.currentTimeMillis();
+            MappedReportReader reader = new MappedReportReader(buf,r.considersTestAsTestObject());
+            try {
+                reader.parse();
+            } catch (Unsupported e) {
+                return false;
+            } catch (BufferUnderflowException e) {
+                return false;   // premature end of file
+            }
+            reader.copyTo(r);
+            SQEStats.INSTANCE.onParse(System.currentTimeMillis()-start,reader.nodes);
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void parse() throws SAXException {
+        skipBOM();
+        try {
+            while(buf.hasRemaining()) {
+                byte b = buf.get();
+                if(b=='<')
+                    markup();
+                else if(capturing())
+                    textByte(b);
+            }
+        } catch (IllegalStateException e) {
+            // incomplete test data. Digester reports this as a SAXException, too.
+            throw new SAXException(e);
+        }
+        if(!open.isEmpty())
+            throw new Unsupported();
+    }
+
+    /**
+     * Moves what has been read into the given report.
+     */
+    private void copyTo(Report r) {
+        for (Element e : rootProperties)
+            e.copy(root,r);
+        for (TestObject t : topLevel)
+            ((TestCollection)r).add(t);
+    }
+
+    private void skipBOM() {
+        if(buf.remaining()>=3 && buf.get(0)==(byte)0xEF && buf.get(1)==(byte)0xBB && buf.get(2)==(byte)0xBF)
+            buf.position(3);
+        else if(buf.remaining()>=2 && (buf.get(0)==(byte)0xFE || buf.get(0)==(byte)0xFF))
+            throw new Unsupported();    // UTF-16
+    }
+
+    private boolean capturing() {
+        return captureDepth==open.size();
+    }
+
+    private void markup() throws SAXException {
+        byte b = peek();
+        if(b=='?') {
+            processingInstruction();
+        } else if(b=='!') {
+            if(lookingAt("!--")) {
+                skipPast("-->");
+            } else if(lookingAt("![CDATA[")) {
+                buf.position(buf.position()+8);
+                cdata();
+            } else {
+                throw new Unsupported();    // DOCTYPE and the likes
+            }
+        } else if(b=='/') {
+            buf.get();
+            endTag(name());
+            skipPast(">");
+        } else {
+            startTag();
+        }
+    }
+
+    private void processingInstruction() {
+        int start = buf.position();
+        skipPast("?>");
+        String pi = ascii(start,buf.position()-start);
+        if(pi.startsWith("?xml ")) {
+            int i = pi.indexOf("encoding");
+            if(i>=0) {
+                String enc = pi.substring(i+8).replaceAll("^\\s*=\\s*['\"]([^'\"]*)['\"].*$","$1").trim();
+                if(!enc.equalsIgnoreCase("UTF-8") && !enc.equalsIgnoreCase("UTF8")
+                && !enc.equalsIgnoreCase("US-ASCII") && !enc.equalsIgnoreCase("ASCII"))
+                    throw new Unsupported();
+            }
+        }
+    }
+
+    private void cdata() {
+        int start = buf.position();
+        skipPast("]]>");
+        if(capturing())
+            for (int i=start; i<buf.position()-3; i++)
+                appendNormalized(buf.get(i));
+    }
+
+    private void startTag() throws SAXException {
+        String name = name();
+        Element e = Element.of(name);
+        Status valueAttr = null;
+        String durationAttr = null;
+
+        // attributes
+        boolean empty = false;
+        while(true) {
+            skipWhitespace();
+            byte b = buf.get();
+            if(b=='>')  break;
+            if(b=='/') {
+                expect('>');
+                empty = true;
+                break;
+            }
+            buf.position(buf.position()-1);
+            String attr = name();
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            if(e==null) {
+                skipAttributeValue();
+                continue;
+            }
+            if(e==Element.STATUS && MODEL_PROPERTIES.contains(attr))
+                throw new Unsupported();    // Digester would set this on the model
+            if(e==Element.STATUS && attr.equals("value"))
+                valueAttr = statusAttributeValue();
+            else if(e.isTestObject() && (attr.equals("time") || attr.equals("duration")))
+                durationAttr = attributeValue();
+            else
+                skipAttributeValue();
+        }
+
+        open.add(name);
+        if(e!=null)
+            begin(e,valueAttr,durationAttr);
+        if(empty)
+            endTag(name);
+    }
+
+    private void begin(Element e, Status valueAttr, String durationAttr) {
+        if(captureDepth>=0)
+            throw new Unsupported();    // markup inside a value. leave that to Digester
+        switch (e) {
+        case TESTSUITE:
+        case TEST:
+        case TESTCASE:
+            TestObject t = e.create();
+            nodes++;
+            if(durationAttr!=null)
+                t.setDurationString(durationAttr);
+            stack.add(t);
+            return;
+        case STATUS:
+            if(valueAttr!=null) {
+                top().setStatus(valueAttr);
+                if(stack.isEmpty())
+                    rootProperties.add(Element.STATUS);
+            }
+            // fall through
+        default:
+            captureDepth = open.size();
+            textLen = 0;
+        }
+    }
+
+    private void endTag(String name) throws SAXException {
+        if(open.isEmpty())
+            throw new SAXException("Unexpected end tag </"+name+">");
+        String expected = open.get(open.size()-1);
+        if(!expected.equals(name))
+            throw new SAXException("End tag </"+name+"> doesn't match <"+expected+">");
+
+        Element e = Element.of(name);
+        if(e!=null) {
+            switch (e) {
+            case TESTSUITE:
+            case TEST:
+            case TESTCASE:
+                TestObject t = stack.remove(stack.size()-1);
+                if(e==Element.TEST && considerTestAsTestObject)
+                    ((Test)t).setconsiderTestAsTestObject();
+                if(stack.isEmpty())
+                    topLevel.add(t);
+                else
+                    ((TestCollection)top()).add(t);
+                break;
+            default:
+                if(captureDepth==open.size()) {
+                    e.set(top(),decodeTrimmed());
+                    if(stack.isEmpty())
+                        rootProperties.add(e);
+                    captureDepth = -1;
+                }
+            }
+        }
+        open.remove(open.size()-1);
+    }
+
+    private TestObject top() {
+        if(stack.isEmpty())
+            return root;
+        return stack.get(stack.size()-1);
+    }
+
+    private void textByte(byte b) {
+        if(b=='&')
+            entity();
+        else
+            appendNormalized(b);
+    }
+
+    /**
+     * Appends a body byte, turning CR LF and lone CR into LF like XML parsers do.
+     */
+    private void appendNormalized(byte b) {
+        if(b=='\r') {
+            if(buf.hasRemaining() && peek()=='\n')
+                return;
+            b = '\n';
+        }
+        append(b);
+    }
+
+    private void append(byte b) {
+        if(textLen==text.length)
+            text = Arrays.copyOf(text,text.length*2);
+        text[textLen++] = b;
+    }
+
+    /**
+     * Decodes the captured text without the surrounding whitespace, like {@link String#trim()} would.
+     */
+    private String decodeTrimmed() {
+        int start = 0, end = textLen;
+        while(start<end && (text[start]&0xFF)<=' ')
+            start++;
+        while(end>start && (text[end-1]&0xFF)<=' ')
+            end--;
+        return new String(text,start,end-start,UTF8);
+    }
+
+    /**
+     * Decodes an entity reference right after '&' into {@link #text}.
+     */
+    private void entity() {
+        int start = buf.position();
+        skipPast(";");
+        String ref = ascii(start,buf.position()-start-1);
+        int ch;
+        if(ref.equals("lt"))            ch = '<';
+        else if(ref.equals("gt"))       ch = '>';
+        else if(ref.equals("amp"))      ch = '&';
+        else if(ref.equals("quot"))     ch = '"';
+        else if(ref.equals("apos"))     ch = '\'';
+        else if(ref.startsWith("#x"))   ch = parseCodePoint(ref.substring(2),16);
+        else if(ref.startsWith("#"))    ch = parseCodePoint(ref.substring(1),10);
+        else
+            throw new Unsupported();
+        if(!Character.isValidCodePoint(ch))
+            throw new Unsupported();    // let Digester report it
+        for (byte b : new String(Character.toChars(ch)).getBytes(UTF8))
+            append(b);
+    }
+
+    private static int parseCodePoint(String s, int radix) {
+        try {
+            return Integer.parseInt(s,radix);
+        } catch (NumberFormatException e) {
+            throw new Unsupported();
+        }
+    }
+
+    private String attributeValue() {
+        // decode after the text captured so far, if any, and then drop it again
+        int mark = decodeAttributeValue();
+        String v = new String(text,mark,textLen-mark,UTF8);
+        textLen = mark;
+        return v;
+    }
+
+    /**
+     * Decodes the value attribute of the status element straight from the bytes if they are ASCII,
+     * which they always are in practice.
+     */
+    private Status statusAttributeValue() {
+        int mark = decodeAttributeValue();
+        Status s;
+        if(isAscii(mark,textLen)) {
+            asciiText.start = mark;
+            asciiText.length = textLen-mark;
+            s = TestObject.parseStatus(asciiText);
+        } else {
+            s = TestObject.parseStatus(new String(text,mark,textLen-mark,UTF8));
+        }
+        textLen = mark;
+        return s;
+    }
+
+    /**
+     * Decodes an attribute value at the end of {@link #text}, and returns where it starts.
+     */
+    private int decodeAttributeValue() {
+        byte quote = buf.get();
+        if(quote!='"' && quote!='\'')
+            throw new Unsupported();
+        int mark = textLen;
+        while(true) {
+            byte b = buf.get();
+            if(b==quote)    break;
+            if(b=='&')
+                entity();
+            else if(b=='\t' || b=='\n' || b=='\r')
+                append((byte)' ');  // attribute value normalization
+            else
+                append(b);
+        }
+        return mark;
+    }
+
+    private boolean isAscii(int start, int end) {
+        for (int i=start; i<end; i++)
+            if(text[i]<0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Part of {@link #text} seen as characters, valid only if it's all ASCII.
+     */
+    private final class AsciiText implements CharSequence {
+        int start, length;
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return (char)text[start+index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start,end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(text,start,length,UTF8);
+        }
+    }
+
+    private void skipAttributeValue() {
+        byte quote = buf.get();
+        if(quote!='"' && quote!='\'')
+            throw new Unsupported();
+        while(buf.get()!=quote)
+            ;
+    }
+
+    private String name() {
+        int start = buf.position();
+        while(buf.hasRemaining()) {
+            byte b = peek();
+            if(b==' ' || b=='\t' || b=='\n' || b=='\r' || b=='>' || b=='/' || b=='=')
+                break;
+            buf.get();
+        }
+        if(buf.position()==start)
+            throw new Unsupported();
+        return ascii(start,buf.position()-start);
+    }
+
+    private void skipWhitespace() {
+        while(buf.hasRemaining()) {
+            byte b = peek();
+            if(b!=' ' && b!='\t' && b!='\n' && b!='\r')
+                return;
+            buf.get();
+        }
+    }
+
+    private void expect(char c) {
+        if(buf.get()!=c)
+            throw new Unsupported();
+    }
+
+    private byte peek() {
+        if(!buf.hasRemaining())
+            throw new Unsupported();
+        return buf.get(buf.position());
+    }
+
+    private boolean lookingAt(String s) {
+        int p = buf.position();
+        if(buf.limit()-p<s.length())
+            return false;
+        for (int i=0; i<s.length(); i++)
+            if(buf.get(p+i)!=s.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Moves the position right after the next occurrence of the given ASCII string.
+     */
+    private void skipPast(String s) {
+        byte first = (byte)s.charAt(0);
+        while(buf.hasRemaining()) {
+            if(buf.get()==first) {
+                buf.position(buf.position()-1);
+                if(lookingAt(s)) {
+                    buf.position(buf.position()+s.length());
+                    return;
+                }
+                buf.get();
+            }
+        }
+        throw new Unsupported();    // premature end of file
+    }
+
+    private String ascii(int start, int len) {
+        char[] chars = new char[len];
+        for (int i=0; i<len; i++)
+            chars[i] = (char)(buf.get(start+i)&0xFF);
+        return new String(chars);
+    }
+
+    /**
+     * Elements that matter to the model, mirroring the patterns registered with Digester.
+     */
+    private enum Element {
+        TESTSUITE, TEST, TESTCASE,
+        ID {
+            void set(TestObject t, String v) { t.setId(v); }
+            void copy(TestObject from, TestObject to) { to.setId(from.getId()); }
+        },
+        NAME {
+            void set(TestObject t, String v) { t.setName(v); }
+            void copy(TestObject from, TestObject to) { to.setName(from.getName()); }
+        },
+        DESCRIPTION {
+            void set(TestObject t, String v) { t.setDescription(v); }
+            void copy(TestObject from, TestObject to) { to.setDescription(from.getDescription()); }
+        },
+        STATUS {
+            void set(TestObject t, String v) { t.setStatusMessage(v); }
+            void copy(TestObject from, TestObject to) {
+                if(from.status!=null)
+                    to.setStatus(from.status);
+                if(from.getStatusMessage()!=null)
+                    to.setStatusMessage(from.getStatusMessage());
+            }
+        },
+        TIME {
+            void set(TestObject t, String v) { t.setDurationString(v); }
+            void copy(TestObject from, TestObject to) { to.setDurationString(Float.toString(from.getDuration())); }
+        },
+        DURATION {
+            void set(TestObject t, String v) { t.setDurationString(v); }
+            void copy(TestObject from, TestObject to) { to.setDurationString(Float.toString(from.getDuration())); }
+        };
+
+        void set(TestObject t, String v) {
+            throw new AssertionError();
+        }
+
+        /**
+         * Copies the property this element sets from one object to another.
+         */
+        void copy(TestObject from, TestObject to) {
+            throw new AssertionError();
+        }
+
+        boolean isTestObject() {
+            return this==TESTSUITE || this==TEST || this==TESTCASE;
+        }
+
+        TestObject create() {
+            switch (this) {
+            case TESTSUITE: return new Suite();
+            case TEST:      return new Test();
+            default:        return new TestCase();
+            }
+        }
+
+        static Element of(String name) {
+            // element names are lower case, so this never matches anything Digester wouldn't
+            for (Element e : values())
+                if(e.tag.equals(name))
+                    return e;
+            return null;
+        }
+
+        private final String tag = name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Attributes of the status element that Digester's SetPropertiesRule would map onto a {@link TestObject}.
+     */
+    private static final Set<String> MODEL_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "id","name","description","statusString","statusMessage","durationString"));
+
+    /**
+     * Thrown to give up and let Digester handle the file.
+     */
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null,null);
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,90 @@
+package hudson.plugins.jwsdp_sqe;
+
+/**
+ * Flat index of all the {@link TestObject}s of a {@link Report} by their path,
+ * so that the counterpart of a node in another build is found with one lookup
+ * instead of one per level of the tree.
+ *
+ * <p>
+ * The index is built on first use and lives as long as the {@link Report}, so when
+ * the report is dropped and loaded again, so is the index.
+ *
+ * <p>
+ * This is an open-addressing hash table of 64-bit path hashes, so it doesn't need to
+ * hold on to a path string per node. A hit is confirmed by comparing the ids on the
+ * way up from the candidate, which rules out collisions.
+ */
+final class PathIndex {
+    private final long[] hashes;
+    private final TestObject<?>[] nodes;
+    private final int mask;
+
+    PathIndex(Report r) {
+        int n = count(r);
+        int capacity = Integer.highestOneBit(Math.max(n,8)*2-1)<<1;
+        hashes = new long[capacity];
+        nodes = new TestObject<?>[capacity];
+        mask = capacity-1;
+        index(r,SEED);
+    }
+
+    private static int count(TestObject<?> t) {
+        int n = 1;
+        if(t instanceof TestCollection)
+            for (TestObject<?> c : ((TestCollection<?,?>)t).getChildren())
+                n += count(c);
+        return n;
+    }
+
+    private void index(TestObject<?> t, long h) {
+        int i = (int)h & mask;
+        while(nodes[i]!=null)
+            i = (i+1) & mask;
+        hashes[i] = h;
+        nodes[i] = t;
+        if(t instanceof TestCollection)
+            for (TestObject<?> c : ((TestCollection<?,?>)t).getChildren())
+                index(c,hash(h,c.getId()));
+    }
+
+    /**
+     * Finds the node that has the same path as the given node, which is typically
+     * in the report of another build.
+     */
+    TestObject<?> find(TestObject<?> t) {
+        long h = hashOf(t);
+        for (int i=(int)h & mask; nodes[i]!=null; i=(i+1) & mask)
+            if(hashes[i]==h && samePath(nodes[i],t))
+                return nodes[i];
+        return null;
+    }
+
+    private static long hashOf(TestObject<?> t) {
+        if(t.parent==null)
+            return SEED;
+        return hash(hashOf(t.parent),t.getId());
+    }
+
+    private static boolean samePath(TestObject<?> a, TestObject<?> b) {
+        while(a.parent!=null && b.parent!=null) {
+            if(!a.getId().equals(b.getId()))
+                return false;
+            a = a.parent;
+            b = b.parent;
+        }
+        return a.parent==null && b.parent==null;
+    }
+
+    /**
+     * FNV-1a over the id, chained from the hash of the parent path.
+     */
+    private static long hash(long h, String id) {
+        h = (h ^ '/') * PRIME;
+        for (int i=0; i<id.length(); i++)
+            h = (h ^ id.charAt(i)) * PRIME;
+        return h ^ (h>>>32);
+    }
+
+    private static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+}
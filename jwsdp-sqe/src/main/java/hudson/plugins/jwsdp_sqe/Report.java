@@ -2,6 +2,8 @@ package hudson.plugins.jwsdp_sqe;
 
 import hudson.model.AbstractBuild;
 import org.apache.commons.digester.Digester;
+import org.apache.commons.digester.Rule;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.InputSource;
 
@@ -21,6 +23,11 @@ public class Report extends TestCollection<Report,Suite> {
 
     private final SQETestAction owner;
 
+    /**
+     * Built on the first lookup by path. The tree doesn't change once it's loaded.
+     */
+    private transient volatile PathIndex index;
+
     public Report(SQETestAction owner) {
         this.owner = owner;
         setName("SQE Test Result");
@@ -41,6 +48,39 @@ public class Report extends TestCollection<Report,Suite> {
             return null;
     }
 
+    /**
+     * Gets the build the given node of this report comes from.
+     */
+    AbstractBuild getOwner(TestObject<?> t) {
+        return getOwner();
+    }
+
+    /**
+     * Gets the rolling health of the given node of this report.
+     *
+     * @return null
+     *      if it's not known.
+     */
+    TestHealth getHealth(TestObject<?> t) {
+        if(owner==null) return null;
+        HealthRollup h = owner.getHealth();
+        return h!=null ? h.get(t) : null;
+    }
+
+    /**
+     * Gets the node in this report that has the same path as the given node of another report.
+     */
+    TestObject<?> getCounterpart(TestObject<?> t) {
+        return getIndex().find(t);
+    }
+
+    private PathIndex getIndex() {
+        PathIndex idx = index;
+        if(idx==null)
+            index = idx = new PathIndex(this);
+        return idx;
+    }
+
     /**
      * Loads SQE report file into this {@link Report} object.
      * @param reportXml
@@ -48,7 +88,9 @@ public class Report extends TestCollection<Report,Suite> {
      * @throws org.xml.sax.SAXException
      */
     public void add( File reportXml ) throws IOException, SAXException {
-        add(new InputSource(reportXml.toURI().toURL().toExternalForm()));
+        if(!USE_MAPPED_READER || !MappedReportReader.read(this,reportXml))
+            add(new InputSource(reportXml.toURI().toURL().toExternalForm()));
+        SQEStats.INSTANCE.onParsedBytes(reportXml.length());
     }
 
     public void add( InputSource reportXml ) throws IOException, SAXException {
@@ -72,9 +114,57 @@ public class Report extends TestCollection<Report,Suite> {
         digester.addBeanPropertySetter("*/description");
         digester.addSetProperties("*/status","value","statusString");
 
+        // optional timing, either as a nested element or an attribute, in seconds
+        digester.addBeanPropertySetter("*/time","durationString");
+        digester.addBeanPropertySetter("*/duration","durationString");
+        DurationAttribute duration = new DurationAttribute();
+        digester.addRule("*/testsuite",duration);
+        digester.addRule("*/test",duration);
+        digester.addRule("*/testcase",duration);
+
         // set attributes. in particular @revision
         digester.addBeanPropertySetter("*/status","statusMessage");
-        digester.parse(reportXml);
+
+        NodeCounter nodes = new NodeCounter();
+        digester.addRule("*/testsuite",nodes);
+        digester.addRule("*/test",nodes);
+        digester.addRule("*/testcase",nodes);
+
+        long start = System.currentTimeMillis();
+        try {
+            digester.parse(reportXml);
+        } finally {
+            SQEStats.INSTANCE.onParse(System.currentTimeMillis()-start,nodes.count);
+        }
+    }
+
+    /**
+     * Sets the duration from the time or duration attribute. Unlike SetPropertiesRule,
+     * leaves the other attributes alone.
+     */
+    private static final class DurationAttribute extends Rule {
+        @Override
+        public void begin(String namespace, String name, Attributes attributes) {
+            for (int i=0; i<attributes.getLength(); i++) {
+                String a = attributes.getLocalName(i);
+                if(a==null || a.length()==0)
+                    a = attributes.getQName(i);
+                if(a.equals("time") || a.equals("duration"))
+                    ((TestObject)getDigester().peek()).setDurationString(attributes.getValue(i));
+            }
+        }
+    }
+
+    /**
+     * Counts the {@link TestObject}s created by the parser.
+     */
+    private static final class NodeCounter extends Rule {
+        long count;
+
+        @Override
+        public void begin(String namespace, String name, Attributes attributes) {
+            count++;
+        }
     }
 
     protected boolean considersTestAsTestObject() {
@@ -84,4 +174,10 @@ public class Report extends TestCollection<Report,Suite> {
     public String getChildTitle() {
         return "Test Suite";
     }
+
+    /**
+     * Read archived report files with {@link MappedReportReader} when possible,
+     * instead of always going through Digester.
+     */
+    public static boolean USE_MAPPED_READER = !Boolean.getBoolean(Report.class.getName()+".disableMappedReader");
 }
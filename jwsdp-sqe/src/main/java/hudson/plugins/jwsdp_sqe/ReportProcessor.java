@@ -0,0 +1,284 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Build;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses the archived SQE reports and records the result, either right away on the
+ * executor thread or, for the asynchronous mode of {@link SQETestResultPublisher},
+ * on a bounded pool of master threads.
+ *
+ * <p>
+ * In the asynchronous mode the publisher still waits for the outcome and applies it
+ * before it returns, so that the notifiers and downstream triggers that run after it
+ * see the result of the tests. What the mode buys is that no more than {@link #THREADS}
+ * reports are parsed on the master at a time, however many builds publish at once.
+ * Submission blocks while {@link #PENDING} reports are already waiting, so that a burst of
+ * builds can't pile up unbounded work on the master.
+ *
+ * <p>
+ * Reports of one project are processed one at a time, lowest build number first,
+ * so that the {@link HealthRollup} of each build is chained to the result of the
+ * build before it even when that result hasn't been applied yet.
+ */
+public final class ReportProcessor {
+    private final ExecutorService pool = new ThreadPoolExecutor(THREADS,THREADS,
+            60L,TimeUnit.SECONDS,new LinkedBlockingQueue<Runnable>(),new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r,"SQE report processor #"+count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    private final Semaphore slots = new Semaphore(PENDING);
+    /**
+     * Reports being processed in the background, by their build.
+     * An entry stays until its outcome is applied to the build.
+     */
+    private final Map<AbstractBuild<?,?>,Task> pending = new HashMap<AbstractBuild<?,?>,Task>();
+    /**
+     * Reports waiting for the one of the same project that's being processed.
+     * A project has an entry only while one of its reports is being processed.
+     * Guarded by {@link #pending}.
+     */
+    private final Map<AbstractProject<?,?>,PriorityQueue<Task>> queues = new HashMap<AbstractProject<?,?>,PriorityQueue<Task>>();
+
+    private ReportProcessor() {
+        ((ThreadPoolExecutor)pool).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * What recording a report does to its build.
+     */
+    static final class Outcome {
+        final SQETestAction action;
+        FailureClusterAction clusters;
+        Result result;
+
+        Outcome(SQETestAction action) {
+            this.action = action;
+        }
+
+        void apply(AbstractBuild<?,?> build) {
+            build.getActions().add(action);
+            if(clusters!=null)
+                build.getActions().add(clusters);
+            if(result!=null)
+                build.setResult(result);
+        }
+    }
+
+    /**
+     * Parses the reports archived for the build, without touching the build itself.
+     */
+    static Outcome process(AbstractBuild<?,?> build, BuildListener listener, boolean considerTestAsTestObject, int healthWindow) {
+        Outcome o = new Outcome(new SQETestAction((Build)build, listener, considerTestAsTestObject, healthWindow));
+        Report r = o.action.getResult();
+
+        if(r.getTotalCount()==0) {
+            listener.getLogger().println("Test reports were found but none of them are new. Did tests run?");
+            // no test result. Most likely a configuration error or fatal problem
+            o.result = Result.FAILURE;
+        } else if(r.getFailCount()>0) {
+            o.result = Result.UNSTABLE;
+        }
+        if(r.getFailCount()>0)
+            o.clusters = new FailureClusterAction(build,FailureCluster.compute(r));
+        return o;
+    }
+
+    /**
+     * Processing of the reports of one build.
+     */
+    private final class Task extends FutureTask<Outcome> implements Comparable<Task> {
+        final AbstractBuild<?,?> build;
+        /**
+         * True once handed to the pool. Guarded by {@link #pending}.
+         */
+        boolean started;
+
+        Task(AbstractBuild<?,?> build, Callable<Outcome> c) {
+            super(c);
+            this.build = build;
+        }
+
+        public int compareTo(Task that) {
+            return this.build.getNumber()-that.build.getNumber();
+        }
+
+        /**
+         * Runs on the pool. The next report of the project is only handed over once this
+         * one has really finished, even if it was cancelled while running.
+         */
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                finished();
+            }
+        }
+
+        /**
+         * Called once the task finishes or is cancelled. Only a task cancelled while still
+         * waiting for its turn is dealt with here, the others are by {@link #run()}.
+         */
+        @Override
+        protected void done() {
+            synchronized (pending) {
+                if(started)     return;
+                PriorityQueue<Task> q = queues.get(build.getParent());
+                if(q!=null)     q.remove(this);
+            }
+            slots.release();
+        }
+
+        /**
+         * Hands the next report of the project to the pool.
+         */
+        void finished() {
+            slots.release();
+            Task next;
+            synchronized (pending) {
+                PriorityQueue<Task> q = queues.get(build.getParent());
+                next = q.poll();
+                if(next==null)
+                    queues.remove(build.getParent());
+                else
+                    next.started = true;
+            }
+            if(next!=null)
+                pool.execute(next);
+        }
+    }
+
+    /**
+     * Queues the reports of the build for processing. Blocks while the queue is full.
+     */
+    void submit(final AbstractBuild<?,?> build, final BuildListener listener,
+                final boolean considerTestAsTestObject, final int healthWindow) throws InterruptedException {
+        if(!slots.tryAcquire()) {
+            listener.getLogger().println("Waiting for the SQE report processing queue");
+            slots.acquire();
+        }
+        Task t = new Task(build,new Callable<Outcome>() {
+            public Outcome call() throws Exception {
+                return process(build,listener,considerTestAsTestObject,healthWindow);
+            }
+        });
+        synchronized (pending) {
+            pending.put(build,t);
+            PriorityQueue<Task> q = queues.get(build.getParent());
+            if(q!=null) {
+                // another report of this project is being processed. this one goes after it.
+                q.add(t);
+                return;
+            }
+            queues.put(build.getParent(),new PriorityQueue<Task>());
+            t.started = true;
+        }
+        try {
+            pool.execute(t);
+        } catch (RuntimeException e) {
+            t.cancel(false);
+            t.finished();
+            synchronized (pending) {
+                pending.remove(build);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the SQE result of the closest earlier build, including the ones that have been
+     * processed in the background but not applied to their build yet.
+     */
+    SQETestAction getPreviousResult(AbstractBuild<?,?> build) {
+        for (AbstractBuild<?,?> b=build.getPreviousBuild(); b!=null; b=b.getPreviousBuild()) {
+            Task t;
+            synchronized (pending) {
+                t = pending.get(b);
+            }
+            // the outcome is applied before the entry is removed, so one of the two is always visible
+            if(t!=null && t.isDone() && !t.isCancelled()) {
+                try {
+                    return t.get().action;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException e) {
+                    continue;   // this build won't have a result either
+                }
+            }
+            SQETestAction a = b.getAction(SQETestAction.class);
+            if(a!=null)     return a;
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the reports of the build to be processed, if they were queued, and applies the result.
+     * Does nothing if the result has already been applied.
+     */
+    void complete(AbstractBuild<?,?> build, TaskListener listener) {
+        Task f;
+        synchronized (pending) {
+            f = pending.get(build);
+        }
+        if(f==null)     return;
+
+        try {
+            f.get().apply(build);
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            listener.getLogger().println("Interrupted while waiting for the SQE reports to be processed");
+            build.setResult(Result.FAILURE);
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to process the SQE reports of "+build, e.getCause());
+            e.getCause().printStackTrace(listener.error("Failed to process the SQE reports"));
+            build.setResult(Result.FAILURE);
+        } finally {
+            synchronized (pending) {
+                pending.remove(build);
+            }
+        }
+    }
+
+    /**
+     * Number of builds whose reports are queued or being processed.
+     */
+    public int getPending() {
+        return PENDING-slots.availablePermits();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ReportProcessor.class.getName());
+
+    public static int THREADS = Integer.getInteger(ReportProcessor.class.getName()+".threads",2);
+    /**
+     * Number of builds whose reports can be waiting for processing before publishers block.
+     */
+    public static int PENDING = Integer.getInteger(ReportProcessor.class.getName()+".pending",8);
+
+    public static final ReportProcessor INSTANCE = new ReportProcessor();
+}
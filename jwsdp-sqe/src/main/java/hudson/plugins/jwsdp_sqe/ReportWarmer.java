@@ -0,0 +1,214 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Preloads the SQE reports of the recent builds of recently active jobs after Hudson starts,
+ * so that the first visitors don't all trigger {@link SQETestAction#getResult()} at once.
+ *
+ * <p>
+ * Off by default. Enable with <tt>-Dhudson.plugins.jwsdp_sqe.ReportWarmer.enabled=true</tt>.
+ * The work is done by a few low-priority daemon threads, and reading of the archived
+ * reports is throttled so that the warm-up doesn't compete with the builds for the disk.
+ */
+public final class ReportWarmer {
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile long startTime, endTime;
+    private volatile boolean started;
+
+    private ReportWarmer() {}
+
+    /**
+     * Number of reports scheduled for warm-up.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Number of reports warmed so far, including the ones that failed to load.
+     */
+    public int getDone() {
+        return done.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public boolean isFinished() {
+        return endTime!=0;
+    }
+
+    /**
+     * Time it took to warm up all the reports in milliseconds,
+     * or the time spent so far if it's still running.
+     */
+    public long getElapsed() {
+        if(!started)    return 0;
+        long end = endTime!=0 ? endTime : System.currentTimeMillis();
+        return end-startTime;
+    }
+
+    @Initializer(after=InitMilestone.JOB_LOADED)
+    public static void init() {
+        if(ENABLED)
+            INSTANCE.start();
+    }
+
+    synchronized void start() {
+        if(started)     return;
+        started = true;
+        startTime = System.currentTimeMillis();
+
+        Thread t = FACTORY.newThread(new Runnable() {
+            public void run() {
+                try {
+                    schedule();
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.INFO, "SQE report warm-up interrupted", e);
+                }
+            }
+        });
+        t.start();
+    }
+
+    /**
+     * Walks the recently active jobs, most recently built first, and feeds their reports
+     * to the pool. Blocks when the pool is busy, so the queue never grows beyond the pool size.
+     */
+    private void schedule() throws InterruptedException {
+        final ExecutorService pool = new ThreadPoolExecutor(THREADS,THREADS,
+                0L,TimeUnit.MILLISECONDS,new LinkedBlockingQueue<Runnable>(),FACTORY);
+        final Semaphore slots = new Semaphore(THREADS*2);
+        long cutoff = System.currentTimeMillis()-TimeUnit.DAYS.toMillis(ACTIVE_DAYS);
+
+        List<AbstractProject> jobs = new ArrayList<AbstractProject>();
+        for (AbstractProject<?,?> p : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+            AbstractBuild<?,?> b = p.getLastBuild();
+            if(b!=null && b.getTimeInMillis()>=cutoff)
+                jobs.add(p);
+        }
+        Collections.sort(jobs,new Comparator<AbstractProject>() {
+            public int compare(AbstractProject lhs, AbstractProject rhs) {
+                long l = lhs.getLastBuild().getTimeInMillis();
+                long r = rhs.getLastBuild().getTimeInMillis();
+                return l<r ? 1 : (l>r ? -1 : 0);
+            }
+        });
+
+        for (AbstractProject<?,?> p : jobs) {
+            int n=0;
+            for (AbstractBuild<?,?> b=p.getLastBuild(); b!=null && n<BUILDS; b=b.getPreviousBuild()) {
+                final SQETestAction a = b.getAction(SQETestAction.class);
+                if(a==null)     continue;
+                n++;
+                queued.incrementAndGet();
+                slots.acquire();
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            warm(a);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+        endTime = System.currentTimeMillis();
+        LOGGER.info("Warmed up "+done+" SQE reports ("+failed+" failed) in "+(endTime-startTime)+"ms");
+    }
+
+    private void warm(SQETestAction a) {
+        try {
+            long start = System.currentTimeMillis();
+            a.warm();
+            throttle(sizeOf(SQETestAction.getDataDir(a.owner)),System.currentTimeMillis()-start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Failed to warm up the SQE report of "+a.owner, e);
+        } finally {
+            done.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sleeps long enough that reading the given number of bytes didn't exceed
+     * the configured rate, per thread.
+     */
+    private static void throttle(long bytes, long elapsed) throws InterruptedException {
+        if(BYTES_PER_SECOND<=0)     return;
+        long wait = bytes*1000/BYTES_PER_SECOND-elapsed;
+        if(wait>0)
+            Thread.sleep(wait);
+    }
+
+    private static long sizeOf(File dir) {
+        long size=0;
+        File[] files = dir.listFiles();
+        if(files!=null)
+            for (File f : files)
+                size += f.length();
+        return size;
+    }
+
+    private static final ThreadFactory FACTORY = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,"SQE report warm-up #"+count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    };
+
+    public static final ReportWarmer INSTANCE = new ReportWarmer();
+
+    private static final Logger LOGGER = Logger.getLogger(ReportWarmer.class.getName());
+
+    public static boolean ENABLED = Boolean.getBoolean(ReportWarmer.class.getName()+".enabled");
+    /**
+     * Number of the most recent builds with SQE reports to warm up per job.
+     */
+    public static int BUILDS = Integer.getInteger(ReportWarmer.class.getName()+".builds",3);
+    /**
+     * Jobs that haven't been built for this many days aren't warmed up.
+     */
+    public static int ACTIVE_DAYS = Integer.getInteger(ReportWarmer.class.getName()+".activeDays",7);
+    public static int THREADS = Integer.getInteger(ReportWarmer.class.getName()+".threads",2);
+    /**
+     * Upper bound of the rate at which each thread reads the archived reports. 0 for no limit.
+     */
+    public static long BYTES_PER_SECOND = Long.getLong(ReportWarmer.class.getName()+".bytesPerSecond",4*1024*1024);
+}
@@ -0,0 +1,169 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Hudson;
+import org.kohsuke.stapler.StaplerProxy;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Project {@link Action} that shows the latest SQE reports of a set of jobs
+ * merged into one {@link AggregatedReport}.
+ *
+ * <p>
+ * The source reports are loaded and copied in parallel. The merged report is kept
+ * until one of the source jobs publishes a new SQE result.
+ */
+public class SQEAggregationAction implements Action, StaplerProxy {
+    public final AbstractProject<?,?> project;
+    private final List<String> jobs;
+
+    private transient SoftReference<AggregatedReport> cache;
+    /**
+     * Source builds {@link #cache} was computed from.
+     */
+    private transient List<AbstractBuild<?,?>> cacheKey;
+
+    SQEAggregationAction(AbstractProject<?,?> project, List<String> jobs) {
+        this.project = project;
+        this.jobs = jobs;
+    }
+
+    /**
+     * Latest builds of the configured jobs that have SQE results.
+     */
+    List<AbstractBuild<?,?>> getSourceBuilds() {
+        List<AbstractBuild<?,?>> r = new ArrayList<AbstractBuild<?,?>>();
+        for (String name : jobs) {
+            AbstractProject<?,?> p = Hudson.getInstance().getItemByFullName(name,AbstractProject.class);
+            if(p==null)     continue;
+            for (AbstractBuild<?,?> b=p.getLastBuild(); b!=null; b=b.getPreviousBuild()) {
+                if(b.getAction(SQETestAction.class)!=null) {
+                    r.add(b);
+                    break;
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Gets the merged report.
+     *
+     * @return null
+     *      if none of the jobs has SQE results yet.
+     */
+    public synchronized AggregatedReport getResult() {
+        List<AbstractBuild<?,?>> sources = getSourceBuilds();
+        if(sources.isEmpty())
+            return null;
+        AggregatedReport r = cache!=null ? cache.get() : null;
+        if(r==null || !sources.equals(cacheKey)) {
+            r = merge(sources);
+            cache = new SoftReference<AggregatedReport>(r);
+            cacheKey = sources;
+        }
+        return r;
+    }
+
+    /**
+     * Merges the SQE reports of the given builds.
+     */
+    static AggregatedReport merge(List<AbstractBuild<?,?>> sources) {
+        // load and copy each source in parallel
+        List<Future<List<Suite>>> copies = new ArrayList<Future<List<Suite>>>();
+        for (AbstractBuild<?,?> b : sources) {
+            final SQETestAction a = b.getAction(SQETestAction.class);
+            copies.add(POOL.submit(new Callable<List<Suite>>() {
+                public List<Suite> call() {
+                    List<Suite> r = new ArrayList<Suite>();
+                    for (Suite s : a.getResult().getChildren())
+                        r.add(s.copy());
+                    return r;
+                }
+            }));
+        }
+
+        // group the copies by suite id
+        Map<String,List<Suite>> suites = new LinkedHashMap<String,List<Suite>>();
+        Map<Suite,AbstractBuild<?,?>> origins = new IdentityHashMap<Suite,AbstractBuild<?,?>>();
+        for (int i=0; i<copies.size(); i++) {
+            try {
+                for (Suite s : copies.get(i).get()) {
+                    List<Suite> l = suites.get(s.getId());
+                    if(l==null)
+                        suites.put(s.getId(),l=new ArrayList<Suite>());
+                    l.add(s);
+                    origins.put(s,sources.get(i));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the SQE report of "+sources.get(i), e);
+            }
+        }
+
+        AggregatedReport r = new AggregatedReport(sources);
+        for (List<Suite> l : suites.values()) {
+            if(l.size()==1) {
+                r.add(r,l.get(0),origins.get(l.get(0)));
+                continue;
+            }
+            Suite merged = new Suite();
+            merged.copyFrom(l.get(0));
+            for (Suite s : l)
+                for (Test t : new ArrayList<Test>(s.getChildren()))
+                    if(merged.get(t.getId())==null)
+                        r.add(merged,t,origins.get(s));
+            // only once it's complete, as the counts add up on add
+            r.add(r,merged,origins.get(l.get(0)));
+        }
+        return r;
+    }
+
+    /**
+     * Shows the merged report, or this action's own page while there's nothing to merge.
+     */
+    public Object getTarget() {
+        AggregatedReport r = getResult();
+        return r!=null ? r : this;
+    }
+
+    public String getIconFileName() {
+        return "clipboard.gif";
+    }
+
+    public String getDisplayName() {
+        return "Aggregated SQE Test Result";
+    }
+
+    public String getUrlName() {
+        return "sqeAggregatedResult";
+    }
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(4,new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,"SQE report aggregation");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final Logger LOGGER = Logger.getLogger(SQEAggregationAction.class.getName());
+}
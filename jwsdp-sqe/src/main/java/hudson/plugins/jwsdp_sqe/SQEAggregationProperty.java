@@ -0,0 +1,71 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Configures a project to show the SQE results of other jobs merged together.
+ * See {@link SQEAggregationAction}.
+ */
+public class SQEAggregationProperty extends JobProperty<AbstractProject<?,?>> {
+    /**
+     * Comma-separated full names of the jobs to aggregate.
+     */
+    private final String jobs;
+
+    @DataBoundConstructor
+    public SQEAggregationProperty(String jobs) {
+        this.jobs = jobs==null ? "" : jobs.trim();
+    }
+
+    public String getJobs() {
+        return jobs;
+    }
+
+    public List<String> getJobList() {
+        List<String> r = new ArrayList<String>();
+        for (String s : jobs.split(",")) {
+            s = s.trim();
+            if(s.length()>0)
+                r.add(s);
+        }
+        return r;
+    }
+
+    @Override
+    public Collection<? extends Action> getJobActions(AbstractProject<?,?> job) {
+        return Collections.singletonList(new SQEAggregationAction(job,getJobList()));
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends JobPropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Aggregate SQE test results of other jobs";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends Job> jobType) {
+            return AbstractProject.class.isAssignableFrom(jobType);
+        }
+
+        @Override
+        public SQEAggregationProperty newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            JSONObject o = formData.optJSONObject("sqeAggregation");
+            if(o==null)     return null;
+            return new SQEAggregationProperty(o.getString("jobs"));
+        }
+    }
+}
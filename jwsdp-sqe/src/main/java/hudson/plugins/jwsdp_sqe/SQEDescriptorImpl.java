@@ -29,7 +29,26 @@ public class SQEDescriptorImpl extends BuildStepDescriptor<Publisher> {
         public Publisher newInstance(StaplerRequest req, JSONObject formData) {
             return new SQETestResultPublisher(
                     req.getParameter("sqetest_includes"),
-                    (req.getParameter("sqetest_testobject")!=null));
+                    (req.getParameter("sqetest_testobject")!=null),
+                    parseHealthWindow(req.getParameter("sqetest_healthWindow")),
+                    (req.getParameter("sqetest_async")!=null),
+                    parseSlowestWindow(req.getParameter("sqetest_slowestWindow")));
+        }
+
+        private static int parseHealthWindow(String s) {
+            try {
+                return s==null ? 0 : Math.max(0,Math.min(TestHealth.MAX_WINDOW,Integer.parseInt(s)));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static int parseSlowestWindow(String s) {
+            try {
+                return s==null ? 0 : Math.max(0,Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
         }
 
         @Override
@@ -0,0 +1,57 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.ManagementLink;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * "SQE Diagnostics" page under "Manage Hudson" that shows {@link SQEStats}
+ * and the progress of {@link ReportWarmer}.
+ */
+@Extension
+public class SQEDiagnosticsLink extends ManagementLink {
+    public String getIconFileName() {
+        return "clipboard.gif";
+    }
+
+    public String getUrlName() {
+        return "sqeDiagnostics";
+    }
+
+    public String getDisplayName() {
+        return "SQE Diagnostics";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Where the JWSDP SQE test report plugin spends its time.";
+    }
+
+    public SQEStats getStats() {
+        return SQEStats.INSTANCE;
+    }
+
+    public ReportWarmer getWarmer() {
+        return ReportWarmer.INSTANCE;
+    }
+
+    public ReportProcessor getProcessor() {
+        return ReportProcessor.INSTANCE;
+    }
+
+    public void doReset(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        // only from the form on the page, not from a link or an image somewhere else
+        if(!req.getMethod().equals("POST")) {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        SQEStats.INSTANCE.reset();
+        rsp.sendRedirect2(".");
+    }
+}
@@ -0,0 +1,180 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
+import hudson.tasks.test.AbstractTestResultAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQE test result of a matrix build, merged from the {@link SQETestAction}s of its configurations.
+ *
+ * <p>
+ * Only the persisted counts of each configuration are used, so building or showing this
+ * never loads the reports of the configurations. Drilling down goes to the report of the
+ * configuration itself.
+ */
+public class SQEMatrixAction extends AbstractTestResultAction<SQEMatrixAction> {
+    private final List<Configuration> configurations = new ArrayList<Configuration>();
+    private int failCount;
+    private int totalCount;
+
+    SQEMatrixAction(MatrixBuild owner) {
+        super(owner);
+    }
+
+    /**
+     * SQE result of one configuration of the matrix.
+     */
+    @ExportedBean(defaultVisibility=2)
+    public static final class Configuration {
+        private final String name;
+        private final String url;
+        private final int failCount;
+        private final int totalCount;
+        private final List<SuiteSummary> suites;
+
+        Configuration(MatrixRun run, SQETestAction a) {
+            this.name = run.getParent().getCombination().toString();
+            this.url = run.getUrl();
+            this.failCount = a.getFailCount();
+            this.totalCount = a.getTotalCount();
+            this.suites = new ArrayList<SuiteSummary>(a.getSuites());
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * URL of the configuration's build, relative to the context root.
+         */
+        @Exported
+        public String getUrl() {
+            return url;
+        }
+
+        @Exported
+        public int getFailCount() {
+            return failCount;
+        }
+
+        @Exported
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        @Exported
+        public List<SuiteSummary> getSuites() {
+            return Collections.unmodifiableList(suites);
+        }
+    }
+
+    /**
+     * A suite merged across the configurations, and the configurations where it failed.
+     */
+    public static final class MergedSuite {
+        private final String id;
+        private final String name;
+        private int failCount, totalCount, skipCount;
+        private final List<Configuration> failedIn = new ArrayList<Configuration>();
+
+        MergedSuite(SuiteSummary s) {
+            this.id = s.getId();
+            this.name = s.getName();
+        }
+
+        void add(Configuration c, SuiteSummary s) {
+            failCount += s.getFailCount();
+            totalCount += s.getTotalCount();
+            skipCount += s.getSkipCount();
+            if(s.getFailCount()>0)
+                failedIn.add(c);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getDisplayName() {
+            return name!=null ? name : id;
+        }
+
+        public int getFailCount() {
+            return failCount;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        public int getSkipCount() {
+            return skipCount;
+        }
+
+        public List<Configuration> getFailedIn() {
+            return failedIn;
+        }
+    }
+
+    synchronized void add(MatrixRun run, SQETestAction a) {
+        configurations.add(new Configuration(run,a));
+        failCount += a.getFailCount();
+        totalCount += a.getTotalCount();
+    }
+
+    boolean isEmpty() {
+        return configurations.isEmpty();
+    }
+
+    @Exported(visibility=2)
+    public List<Configuration> getConfigurations() {
+        return Collections.unmodifiableList(configurations);
+    }
+
+    /**
+     * Gets the configurations that have failures.
+     */
+    public List<Configuration> getFailedConfigurations() {
+        List<Configuration> r = new ArrayList<Configuration>();
+        for (Configuration c : configurations)
+            if(c.getFailCount()>0)
+                r.add(c);
+        return r;
+    }
+
+    /**
+     * Merges the suites of all the configurations by their id, in the order they first appear.
+     */
+    public List<MergedSuite> getSuites() {
+        Map<String,MergedSuite> r = new LinkedHashMap<String,MergedSuite>();
+        for (Configuration c : configurations) {
+            for (SuiteSummary s : c.getSuites()) {
+                MergedSuite m = r.get(s.getId());
+                if(m==null)
+                    r.put(s.getId(),m=new MergedSuite(s));
+                m.add(c,s);
+            }
+        }
+        return new ArrayList<MergedSuite>(r.values());
+    }
+
+    public int getFailCount() {
+        return failCount;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public Object getResult() {
+        return this;
+    }
+}
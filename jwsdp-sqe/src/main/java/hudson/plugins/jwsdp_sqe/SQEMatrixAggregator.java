@@ -0,0 +1,42 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Launcher;
+import hudson.matrix.MatrixAggregator;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
+import hudson.model.BuildListener;
+
+/**
+ * Collects the {@link SQETestAction}s of the configurations into a {@link SQEMatrixAction}
+ * on the matrix build, as each configuration completes.
+ */
+final class SQEMatrixAggregator extends MatrixAggregator {
+    private SQEMatrixAction result;
+
+    SQEMatrixAggregator(MatrixBuild build, Launcher launcher, BuildListener listener) {
+        super(build, launcher, listener);
+    }
+
+    @Override
+    public boolean startBuild() {
+        result = new SQEMatrixAction(build);
+        return true;
+    }
+
+    @Override
+    public boolean endRun(MatrixRun run) {
+        // don't miss a configuration whose reports are still on the processing queue
+        ReportProcessor.INSTANCE.complete(run,listener);
+        SQETestAction a = run.getAction(SQETestAction.class);
+        if(a!=null)
+            result.add(run,a);
+        return true;
+    }
+
+    @Override
+    public boolean endBuild() {
+        if(!result.isEmpty())
+            build.getActions().add(result);
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters and timers for the hot paths of the plugin: collecting the report files
+ * in the workspace, parsing them, loading them on demand and drawing the trend graphs.
+ *
+ * <p>
+ * Exposed through JMX as <tt>hudson.plugins.jwsdp_sqe:type=SQEStats</tt>
+ * and on the "SQE Diagnostics" page under "Manage Hudson".
+ */
+public final class SQEStats implements SQEStatsMBean {
+    /**
+     * Number of times the workspace got scanned for report files, and how long the
+     * scanning, the XML validation and the copying took. The work happens on the slave,
+     * so these are reported back by {@link ScanResult}.
+     */
+    private final Timer scan = new Timer();
+    private final AtomicLong validateMillis = new AtomicLong();
+    private final AtomicLong copyMillis = new AtomicLong();
+    private final AtomicLong copiedFiles = new AtomicLong();
+
+    /**
+     * Parsing of report files by {@link Report#add(org.xml.sax.InputSource)}.
+     */
+    private final Timer parse = new Timer();
+    private final AtomicLong parsedBytes = new AtomicLong();
+    private final AtomicLong parsedNodes = new AtomicLong();
+
+    /**
+     * {@link SQETestAction#getResult()} calls served from memory vs. those that had to reload.
+     */
+    private final AtomicLong resultCacheHits = new AtomicLong();
+    private final AtomicLong resultReloads = new AtomicLong();
+
+    private final Timer trendGraph = new Timer();
+
+    private SQEStats() {}
+
+    void onScan(ScanResult r) {
+        scan.add(r.scanMillis);
+        validateMillis.addAndGet(r.validateMillis);
+        copyMillis.addAndGet(r.copyMillis);
+        copiedFiles.addAndGet(r.files);
+    }
+
+    void onParse(long millis, long nodes) {
+        parse.add(millis);
+        parsedNodes.addAndGet(nodes);
+    }
+
+    void onParsedBytes(long bytes) {
+        parsedBytes.addAndGet(bytes);
+    }
+
+    void onResult(boolean hit) {
+        (hit ? resultCacheHits : resultReloads).incrementAndGet();
+    }
+
+    void onTrendGraph(long millis) {
+        trendGraph.add(millis);
+    }
+
+    public long getScanCount() { return scan.count.get(); }
+    public long getScanMillis() { return scan.total.get(); }
+    public long getValidateMillis() { return validateMillis.get(); }
+    public long getCopyMillis() { return copyMillis.get(); }
+    public long getCopiedFiles() { return copiedFiles.get(); }
+
+    public long getParseCount() { return parse.count.get(); }
+    public long getParseMillis() { return parse.total.get(); }
+    public long getParseMaxMillis() { return parse.max.get(); }
+    public long getParsedBytes() { return parsedBytes.get(); }
+    public long getParsedNodes() { return parsedNodes.get(); }
+
+    public long getResultCacheHits() { return resultCacheHits.get(); }
+    public long getResultReloads() { return resultReloads.get(); }
+
+    public long getTrendGraphCount() { return trendGraph.count.get(); }
+    public long getTrendGraphMillis() { return trendGraph.total.get(); }
+    public long getTrendGraphMaxMillis() { return trendGraph.max.get(); }
+
+    public void reset() {
+        scan.reset();
+        validateMillis.set(0);
+        copyMillis.set(0);
+        copiedFiles.set(0);
+        parse.reset();
+        parsedBytes.set(0);
+        parsedNodes.set(0);
+        resultCacheHits.set(0);
+        resultReloads.set(0);
+        trendGraph.reset();
+    }
+
+    /**
+     * Number of events, their total time and the slowest one.
+     */
+    private static final class Timer {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long millis) {
+            count.incrementAndGet();
+            total.addAndGet(millis);
+            long m;
+            while((m=max.get())<millis && !max.compareAndSet(m,millis))
+                ;
+        }
+
+        void reset() {
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+    }
+
+    /**
+     * Timings of the workspace scan, measured on the slave and sent back to the master.
+     */
+    static final class ScanResult implements Serializable {
+        long scanMillis, validateMillis, copyMillis;
+        int files;
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Initializer(after=InitMilestone.PLUGINS_STARTED)
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                    new ObjectName("hudson.plugins.jwsdp_sqe:type=SQEStats"));
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Failed to register the SQE statistics MBean", e);
+        }
+    }
+
+    public static final SQEStats INSTANCE = new SQEStats();
+
+    private static final Logger LOGGER = Logger.getLogger(SQEStats.class.getName());
+}
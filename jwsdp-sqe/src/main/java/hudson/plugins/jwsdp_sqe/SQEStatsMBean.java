@@ -0,0 +1,27 @@
+package hudson.plugins.jwsdp_sqe;
+
+/**
+ * JMX view of {@link SQEStats}. Times are in milliseconds.
+ */
+public interface SQEStatsMBean {
+    long getScanCount();
+    long getScanMillis();
+    long getValidateMillis();
+    long getCopyMillis();
+    long getCopiedFiles();
+
+    long getParseCount();
+    long getParseMillis();
+    long getParseMaxMillis();
+    long getParsedBytes();
+    long getParsedNodes();
+
+    long getResultCacheHits();
+    long getResultReloads();
+
+    long getTrendGraphCount();
+    long getTrendGraphMillis();
+    long getTrendGraphMaxMillis();
+
+    void reset();
+}
@@ -3,13 +3,20 @@ package hudson.plugins.jwsdp_sqe;
 import hudson.model.Build;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
+import hudson.model.HealthReport;
 import hudson.tasks.junit.TestResult;
 import hudson.tasks.test.AbstractTestResultAction;
 import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.export.Exported;
 import org.xml.sax.SAXException;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,24 +25,58 @@ import java.util.logging.Logger;
  *
  * <p>
  * The actual test reports are isolated by {@link WeakReference}
- * so that it doesn't eat up too much memory.
+ * so that it doesn't eat up too much memory. Reports loaded by {@link ReportWarmer}
+ * are held by {@link SoftReference} instead, so that they survive until there's memory pressure.
  *
  * @author Kohsuke Kawaguchi
  */
 public class SQETestAction extends AbstractTestResultAction<SQETestAction> implements StaplerProxy {
-    private transient WeakReference<Report> result;
+    private transient Reference<Report> result;
     private boolean considerTestAsTestObject = false;
     private final int failCount;
     private final int totalCount;
+    /**
+     * Slowest tests and suites of this build, slowest first.
+     * Null for builds recorded before the durations were captured.
+     */
+    private List<TestDuration> slowestTests;
+    private List<TestDuration> slowestSuites;
+    /**
+     * Counts of each suite, in the order of the report.
+     * Null for builds recorded before the summaries were kept.
+     */
+    private List<SuiteSummary> suites;
+    /**
+     * If non-zero, the build health is scored by the average pass rate of the tests
+     * over this many runs, instead of just this build's fail count.
+     */
+    private int healthWindow;
+    private float rollingPassRate;
+    private transient Reference<HealthRollup> health;
     private static final Logger logger = Logger.getLogger(SQETestAction.class.getName());
 
-    SQETestAction(Build owner, BuildListener listener, boolean considerTestAsTestObject) {
+    SQETestAction(Build owner, BuildListener listener, boolean considerTestAsTestObject, int healthWindow) {
         super(owner);
         this.considerTestAsTestObject = considerTestAsTestObject;
         Report r = load(listener);
         totalCount = r.getTotalCount();
         failCount = r.getFailCount();
+        slowestTests = TestDuration.slowestTests(r,SLOWEST_COUNT);
+        slowestSuites = TestDuration.slowestSuites(r,SLOWEST_COUNT);
+        suites = SuiteSummary.of(r);
         result = new WeakReference<Report>(r);
+
+        // the previous build may still be waiting for its result to be applied
+        SQETestAction prev = ReportProcessor.INSTANCE.getPreviousResult(owner);
+        HealthRollup h = HealthRollup.update(prev!=null ? prev.getHealth() : null, r, owner);
+        try {
+            h.save(HealthRollup.getFile(owner));
+        } catch (IOException e) {
+            e.printStackTrace(listener.error("Failed to record the test health"));
+        }
+        health = new WeakReference<HealthRollup>(h);
+        this.healthWindow = healthWindow;
+        rollingPassRate = h.getMeanPassRate(r,healthWindow);
     }
 
     static File getDataDir(AbstractBuild build) {
@@ -48,11 +89,13 @@ public class SQETestAction extends AbstractTestResultAction<SQETestAction> imple
 
     public synchronized Report getResult() {
         if(result==null) {
+            SQEStats.INSTANCE.onResult(false);
             Report r = load(null);
             result = new WeakReference<Report>(r);
             return r;
         }
         Report r = result.get();
+        SQEStats.INSTANCE.onResult(r!=null);
         if(r==null) {
             r = load(null);
             result = new WeakReference<Report>(r);
@@ -60,6 +103,49 @@ public class SQETestAction extends AbstractTestResultAction<SQETestAction> imple
         return r;
     }
 
+    /**
+     * Loads the report ahead of its first use, unless it's already in memory.
+     */
+    synchronized void warm() {
+        if(result!=null && result.get()!=null)
+            return;
+        result = new SoftReference<Report>(load(null));
+    }
+
+    /**
+     * Gets the rolling health of the tests as of this build.
+     *
+     * @return null
+     *      for builds recorded before the health was kept.
+     */
+    public synchronized HealthRollup getHealth() {
+        HealthRollup h = health!=null ? health.get() : null;
+        if(h==null) {
+            File f = HealthRollup.getFile(owner);
+            if(!f.exists())
+                return null;
+            try {
+                h = HealthRollup.load(f);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to load "+f,e);
+                return null;
+            }
+            health = new WeakReference<HealthRollup>(h);
+        }
+        return h;
+    }
+
+    /**
+     * Scores the build by the average pass rate over the configured window, if one is configured.
+     */
+    @Override
+    public HealthReport getBuildHealth() {
+        if(healthWindow==0 || rollingPassRate<0)
+            return super.getBuildHealth();
+        return new HealthReport((int)rollingPassRate,
+                String.format("SQE tests: %.1f%% passed over the last %d runs",rollingPassRate,healthWindow));
+    }
+
     /**
      * Gets the number of failed tests.
      * @return 
@@ -76,6 +162,48 @@ public class SQETestAction extends AbstractTestResultAction<SQETestAction> imple
         return totalCount;
     }
 
+    /**
+     * Gets the counts of each suite without loading the report.
+     *
+     * @return empty
+     *      for builds recorded before the summaries were kept.
+     */
+    @Exported(visibility=2)
+    public List<SuiteSummary> getSuites() {
+        if(suites==null)
+            return Collections.emptyList();
+        return suites;
+    }
+
+    /**
+     * Gets the suites that have failures.
+     */
+    public List<SuiteSummary> getFailedSuites() {
+        List<SuiteSummary> r = new ArrayList<SuiteSummary>();
+        for (SuiteSummary s : getSuites())
+            if(s.getFailCount()>0)
+                r.add(s);
+        return r;
+    }
+
+    /**
+     * Gets the slowest tests of this build, slowest first.
+     */
+    public List<TestDuration> getSlowestTests() {
+        if(slowestTests==null)
+            return Collections.emptyList();
+        return slowestTests;
+    }
+
+    /**
+     * Gets the slowest suites of this build, slowest first.
+     */
+    public List<TestDuration> getSlowestSuites() {
+        if(slowestSuites==null)
+            return Collections.emptyList();
+        return slowestSuites;
+    }
+
     /**
      * Loads a {@link TestResult} from disk.
      *
@@ -113,4 +241,9 @@ public class SQETestAction extends AbstractTestResultAction<SQETestAction> imple
     public Object getTarget() {
         return getResult();
     }
+
+    /**
+     * Number of the slowest tests and suites remembered for each build.
+     */
+    static final int SLOWEST_COUNT = 20;
 }
@@ -4,6 +4,9 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.FilePath.FileCallable;
 import hudson.Launcher;
+import hudson.matrix.MatrixAggregatable;
+import hudson.matrix.MatrixAggregator;
+import hudson.matrix.MatrixBuild;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.remoting.VirtualChannel;
@@ -30,13 +33,15 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Collects SQE test reports and convert them into JUnit format.
  *
  * @author Kohsuke Kawaguchi
  */
-public class SQETestResultPublisher extends Recorder implements Serializable {
+public class SQETestResultPublisher extends Recorder implements Serializable, MatrixAggregatable {
 
     @Extension
     public static final SQEDescriptorImpl DESCRIPTOR = new SQEDescriptorImpl();
@@ -45,13 +50,32 @@ public class SQETestResultPublisher extends Recorder implements Serializable {
      * Flag to capture if test should be considered as executable TestObject
      */
     boolean considerTestAsTestObject = false;
+    /**
+     * Number of runs the build health is averaged over, or 0 to use the latest result only.
+     */
+    private int healthWindow;
+    /**
+     * If true, the reports are parsed on the bounded pool of master threads once they are copied,
+     * instead of on the executor thread. The publisher still waits for the result. See {@link ReportProcessor}.
+     */
+    private boolean asynchronous;
+    /**
+     * Number of recent builds the slowest tests are ranked over, or 0 for the default.
+     */
+    private int slowestWindow;
 
     public SQETestResultPublisher(
             String includes,
-            boolean considerTestAsTestObject) {
+            boolean considerTestAsTestObject,
+            int healthWindow,
+            boolean asynchronous,
+            int slowestWindow) {
 
         this.includes = includes;
         this.considerTestAsTestObject = considerTestAsTestObject;
+        this.healthWindow = healthWindow;
+        this.asynchronous = asynchronous;
+        this.slowestWindow = slowestWindow;
     }
 
     /**
@@ -66,11 +90,38 @@ public class SQETestResultPublisher extends Recorder implements Serializable {
         return considerTestAsTestObject;
     }
 
+    public int getHealthWindow() {
+        return healthWindow;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    public int getSlowestWindow() {
+        return slowestWindow>0 ? slowestWindow : DEFAULT_SLOWEST_WINDOW;
+    }
+
     @Override
     public Action getProjectAction(AbstractProject<?,?> project) {
         return new TestResultProjectAction(project);
     }
 
+    @Override
+    public Collection<? extends Action> getProjectActions(AbstractProject<?,?> project) {
+        return Arrays.asList(
+                getProjectAction(project),
+                new SlowestTestsProjectAction(project,getSlowestWindow()),
+                new HistoryExportAction(project));
+    }
+
+    /**
+     * Merges the results of the configurations of a matrix build, from their persisted counts.
+     */
+    public MatrixAggregator createAggregator(MatrixBuild build, Launcher launcher, BuildListener listener) {
+        return new SQEMatrixAggregator(build, launcher, listener);
+    }
+
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.BUILD;
     }
@@ -107,14 +158,17 @@ public class SQETestResultPublisher extends Recorder implements Serializable {
         final FilePath target = new FilePath(dataDir);
 
         try {
-            build.getWorkspace().act(new FileCallable<Void>() {
-                public Void invoke(File ws, VirtualChannel channel) throws IOException {
+            SQEStats.ScanResult stats = build.getWorkspace().act(new FileCallable<SQEStats.ScanResult>() {
+                public SQEStats.ScanResult invoke(File ws, VirtualChannel channel) throws IOException {
+                    SQEStats.ScanResult stats = new SQEStats.ScanResult();
+                    long start = System.currentTimeMillis();
                     FileSet fs = new FileSet();
                     org.apache.tools.ant.Project p = new org.apache.tools.ant.Project();
                     fs.setProject(p);
                     fs.setDir(ws);
                     fs.setIncludes(includes);
                     String[] includedFiles = fs.getDirectoryScanner(p).getIncludedFiles();
+                    stats.scanMillis = System.currentTimeMillis()-start;
 
                     if(includedFiles.length==0)
                         // no test result. Most likely a configuration error or fatal problem
@@ -134,20 +188,26 @@ public class SQETestResultPublisher extends Recorder implements Serializable {
                         }
 
                         // verify that this is indeed an XML file, while we still know the original file name.
+                        start = System.currentTimeMillis();
                         try {
                             parser.parse(src,new DefaultHandler());
                         } catch (SAXException e) {
                             listener.getLogger().println("Skipping "+src+" because it doesn't look like an XML file");
                             continue;
+                        } finally {
+                            stats.validateMillis += System.currentTimeMillis()-start;
                         }
 
+                        start = System.currentTimeMillis();
                         try {
                             new FilePath(src).copyTo(target.child("report"+(counter++)+".xml"));
                         } catch (InterruptedException e) {
                             throw new IOException2("aborted while copying "+src,e);
                         }
+                        stats.copyMillis += System.currentTimeMillis()-start;
+                        stats.files++;
                     }
-                    return null;
+                    return stats;
                 }
 
                 private SAXParser createParser() throws IOException {
@@ -166,6 +226,7 @@ public class SQETestResultPublisher extends Recorder implements Serializable {
                 
                 private static final long serialVersionUID = 1L;
             });
+            SQEStats.INSTANCE.onScan(stats);
         } catch (AbortException e) {
             if(build.getResult()== Result.FAILURE)
                 // most likely a build failed before it gets to the test phase.
@@ -177,26 +238,24 @@ public class SQETestResultPublisher extends Recorder implements Serializable {
             return true; /// but this is not a fatal error
         }
 
-        // Type checked above, so cast is ok:
-        SQETestAction action = new SQETestAction((Build)build, listener, considerTestAsTestObject);
-        build.getActions().add(action);
-
-        Report r = action.getResult();
-
-        if(r.getTotalCount()==0) {
-            listener.getLogger().println("Test reports were found but none of them are new. Did tests run?");
-            // no test result. Most likely a configuration error or fatal problem
-            build.setResult(Result.FAILURE);
+        if(asynchronous) {
+            ReportProcessor.INSTANCE.submit(build, listener, considerTestAsTestObject, healthWindow);
+            // the result has to be in place before the notifiers and downstream triggers look at the build
+            ReportProcessor.INSTANCE.complete(build, listener);
+            return true;
         }
 
-        if(r.getFailCount()>0)
-            build.setResult(Result.UNSTABLE);
-
+        ReportProcessor.process(build, listener, considerTestAsTestObject, healthWindow).apply(build);
         return true;
     }
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Window of the slowest tests for jobs configured before it could be set.
+     */
+    static final int DEFAULT_SLOWEST_WINDOW = 10;
+
     @Override
     public BuildStepDescriptor<Publisher> getDescriptor() {
         return DESCRIPTOR;
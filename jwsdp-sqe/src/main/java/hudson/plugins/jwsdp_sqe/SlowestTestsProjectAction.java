@@ -0,0 +1,100 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Project {@link Action} that shows the slowest SQE tests and suites
+ * over the recent builds with SQE results.
+ *
+ * <p>
+ * Only the per-build rankings persisted in {@link SQETestAction} are merged,
+ * so no report gets loaded. A test ranked by several builds shows up once,
+ * with the duration from the newest of them. A test that dropped out of the newer
+ * rankings keeps its older duration, and links to the build it comes from.
+ */
+public class SlowestTestsProjectAction implements Action {
+    public final AbstractProject<?,?> project;
+    /**
+     * Number of builds with SQE results whose rankings are merged.
+     */
+    private final int window;
+
+    public SlowestTestsProjectAction(AbstractProject<?,?> project, int window) {
+        this.project = project;
+        this.window = window;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public List<Entry> getSlowestTests() {
+        return merge(true);
+    }
+
+    public List<Entry> getSlowestSuites() {
+        return merge(false);
+    }
+
+    /**
+     * Merges the rankings of the last {@link #window} builds, newest first,
+     * into the {@link SQETestAction#SLOWEST_COUNT} slowest.
+     */
+    private List<Entry> merge(boolean tests) {
+        List<Entry> r = new ArrayList<Entry>();
+        Set<String> seen = new HashSet<String>();
+        int n = 0;
+        for (AbstractBuild<?,?> b=project.getLastBuild(); b!=null && n<window; b=b.getPreviousBuild()) {
+            SQETestAction a = b.getAction(SQETestAction.class);
+            if(a==null)     continue;
+            n++;
+            for (TestDuration d : tests ? a.getSlowestTests() : a.getSlowestSuites())
+                if(seen.add(d.getPath()))
+                    r.add(new Entry(b,d));
+        }
+        Collections.sort(r,SLOWEST_FIRST);
+        if(r.size()>SQETestAction.SLOWEST_COUNT)
+            r = r.subList(0,SQETestAction.SLOWEST_COUNT);
+        return r;
+    }
+
+    /**
+     * A {@link TestDuration} and the build it was recorded by.
+     */
+    public static final class Entry {
+        public final AbstractBuild<?,?> build;
+        public final TestDuration duration;
+
+        Entry(AbstractBuild<?,?> build, TestDuration duration) {
+            this.build = build;
+            this.duration = duration;
+        }
+    }
+
+    private static final Comparator<Entry> SLOWEST_FIRST = new Comparator<Entry>() {
+        public int compare(Entry lhs, Entry rhs) {
+            return Float.compare(rhs.duration.getDuration(),lhs.duration.getDuration());
+        }
+    };
+
+    public String getIconFileName() {
+        return "clipboard.gif";
+    }
+
+    public String getDisplayName() {
+        return "Slowest SQE Tests";
+    }
+
+    public String getUrlName() {
+        return "sqeSlowestTests";
+    }
+}
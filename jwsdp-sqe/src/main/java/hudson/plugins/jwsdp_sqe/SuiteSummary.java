@@ -0,0 +1,78 @@
+package hudson.plugins.jwsdp_sqe;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pass/fail counts of one {@link Suite}, persisted in {@link SQETestAction}
+ * so that summary views and the remote API don't need to load the report.
+ */
+@ExportedBean(defaultVisibility=2)
+public final class SuiteSummary {
+    private final String id;
+    private final String name;
+    private final int totalCount;
+    private final int failCount;
+    private final int skipCount;
+
+    SuiteSummary(String id, String name, int totalCount, int failCount, int skipCount) {
+        this.id = id;
+        this.name = name;
+        this.totalCount = totalCount;
+        this.failCount = failCount;
+        this.skipCount = skipCount;
+    }
+
+    @Exported
+    public String getId() {
+        return id;
+    }
+
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    public String getDisplayName() {
+        return name!=null ? name : id;
+    }
+
+    @Exported
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Number of failed tests, including the skipped ones.
+     */
+    @Exported
+    public int getFailCount() {
+        return failCount;
+    }
+
+    @Exported
+    public int getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * Summarizes all the suites of the given report, in the order of the report.
+     */
+    static List<SuiteSummary> of(Report r) {
+        List<SuiteSummary> result = new ArrayList<SuiteSummary>();
+        for (Suite s : r.getChildren()) {
+            final int[] skip = new int[1];
+            new TestVisitor() {
+                void visit(TestObject<?> t) {
+                    if(t.getStatus()==Status.SKIP)
+                        skip[0]++;
+                }
+            }.walk(s);
+            result.add(new SuiteSummary(s.getId(),s.getName(),s.getTotalCount(),s.getFailCount(),skip[0]));
+        }
+        return result;
+    }
+}
@@ -40,4 +40,10 @@ public class Test extends TestCollection<Test,TestCase> {
     public void setconsiderTestAsTestObject() {
         this.considerTestAsTestObject = true;
     }
+
+    @Override
+    void copyFrom(TestObject<?> that) {
+        super.copyFrom(that);
+        this.considerTestAsTestObject = ((Test)that).considerTestAsTestObject;
+    }
 }
@@ -1,9 +1,18 @@
 package hudson.plugins.jwsdp_sqe;
 
+import net.sf.json.util.JSONUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -28,6 +37,10 @@ public abstract class TestCollection<
 
     private int totalCount;
     private int failCount;
+    /**
+     * Sum of the durations of the children that have one, or -1 if none does.
+     */
+    private float childDuration = -1;
 
     public Collection<C> getChildren() {
         return tests.values();
@@ -41,6 +54,17 @@ public abstract class TestCollection<
         return failCount;
     }
 
+    /**
+     * Uses the duration recorded for this collection in the report if there's one,
+     * or else the total of the children.
+     */
+    @Override
+    public float getDuration() {
+        float d = super.getDuration();
+        if(d>=0)    return d;
+        return childDuration;
+    }
+
     /**
      * Returns the caption of the children. Used in the view.
      */
@@ -64,9 +88,245 @@ public abstract class TestCollection<
         tests.put(t.getId(),t);
         totalCount += t.getTotalCount();
         failCount += t.getFailCount();
+        float d = t.getDuration();
+        if(d>=0)
+            childDuration = Math.max(childDuration,0)+d;
         t.parent = this;
     }
 
+    /**
+     * Gets the portion of the children requested by the "start", "count", "sort"
+     * and "filter" query parameters. Used by the view so that suites with
+     * tens of thousands of children don't get rendered in one page.
+     */
+    public Page<C> getPage(StaplerRequest req) {
+        return new Page<C>(getChildren(),
+                Order.parse(req.getParameter("sort")),
+                parseFilter(req.getParameter("filter")),
+                parseInt(req.getParameter("start"),0),
+                parseInt(req.getParameter("count"),DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * Writes the children as a JSON array.
+     *
+     * <p>
+     * Accepts the same parameters as {@link #getPage(StaplerRequest)}, except that
+     * everything is written when "count" is omitted. Unless a non-default sort order is
+     * requested, the children are written straight off the map, one at a time, so
+     * the memory use doesn't depend on the size of the collection.
+     */
+    public void doChildrenJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Order order = Order.parse(req.getParameter("sort"));
+        Status filter = parseFilter(req.getParameter("filter"));
+        int start = Math.max(0,parseInt(req.getParameter("start"),0));
+        int count = parseInt(req.getParameter("count"),Integer.MAX_VALUE);
+
+        Iterator<C> itr;
+        if(order==Order.ID)
+            itr = getChildren().iterator();
+        else
+            itr = order.sort(getChildren()).iterator();
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        PrintWriter w = rsp.getWriter();
+        w.write('[');
+        int index=0, written=0;
+        while(itr.hasNext() && written<count) {
+            C c = itr.next();
+            if(!matches(c,filter))  continue;
+            if(index++<start)       continue;
+            if(written++>0)         w.write(',');
+            w.write("{\"id\":");
+            w.write(quote(c.getId()));
+            w.write(",\"name\":");
+            w.write(quote(c.getName()));
+            w.write(",\"status\":");
+            w.write(quote(c.getStatus()==null ? null : c.getStatus().name()));
+            w.write(",\"failCount\":");
+            w.print(c.getFailCount());
+            w.write(",\"totalCount\":");
+            w.print(c.getTotalCount());
+            w.write('}');
+        }
+        w.write(']');
+        w.flush();
+    }
+
+    private static String quote(String s) {
+        if(s==null)     return "null";
+        return JSONUtils.quote(s);
+    }
+
+    private static int parseInt(String s, int defaultValue) {
+        if(s==null)     return defaultValue;
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Maps the "filter" query parameter to a {@link Status}. Null means everything.
+     */
+    private static Status parseFilter(String s) {
+        if(s==null)     return null;
+        for (Status st : Status.values())
+            if(st.name().equalsIgnoreCase(s))
+                return st;
+        return null;
+    }
+
+    private static boolean matches(TestObject<?> t, Status filter) {
+        return filter==null || t.getStatus()==filter;
+    }
+
+    /**
+     * Number of children shown per page when the request doesn't specify it.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Order in which the children are presented.
+     */
+    public enum Order {
+        /**
+         * By id. This is the natural order of the collection, so it costs nothing.
+         */
+        ID(null),
+        /**
+         * Failed tests, then skipped ones, then passed ones.
+         */
+        STATUS(new Comparator<TestObject<?>>() {
+            public int compare(TestObject<?> lhs, TestObject<?> rhs) {
+                return rank(lhs.getStatus())-rank(rhs.getStatus());
+            }
+        }),
+        /**
+         * Children with most failures first.
+         */
+        FAILURES(new Comparator<TestObject<?>>() {
+            public int compare(TestObject<?> lhs, TestObject<?> rhs) {
+                return rhs.getFailCount()-lhs.getFailCount();
+            }
+        });
+
+        private final Comparator<TestObject<?>> comparator;
+
+        Order(Comparator<TestObject<?>> comparator) {
+            this.comparator = comparator;
+        }
+
+        /**
+         * Returns the given children in this order. Since the sort is stable,
+         * ties stay in id order.
+         */
+        <C extends TestObject<C>> List<C> sort(Collection<C> children) {
+            List<C> r = new ArrayList<C>(children);
+            if(comparator!=null)
+                Collections.sort(r,comparator);
+            return r;
+        }
+
+        public static Order parse(String s) {
+            if(s!=null)
+                for (Order o : values())
+                    if(o.name().equalsIgnoreCase(s))
+                        return o;
+            return ID;
+        }
+
+        private static int rank(Status s) {
+            if(s==Status.FAIL)  return 0;
+            if(s==Status.SKIP)  return 1;
+            if(s==Status.PASS)  return 3;
+            return 2;
+        }
+    }
+
+    /**
+     * A window over the (possibly sorted and filtered) children of a {@link TestCollection}.
+     */
+    public static final class Page<C extends TestObject<C>> {
+        private final List<C> items = new ArrayList<C>();
+        private final Order order;
+        private final Status filter;
+        private final int start;
+        private final int count;
+        private int size;
+
+        Page(Collection<C> children, Order order, Status filter, int start, int count) {
+            this.order = order;
+            this.filter = filter;
+            this.start = Math.max(0,start);
+            this.count = count>0 ? count : DEFAULT_PAGE_SIZE;
+
+            // in the id order we only need to hold on to the children on this page
+            Collection<C> src = order==Order.ID ? children : order.sort(children);
+            for (C c : src) {
+                if(!matches(c,filter))  continue;
+                if(size>=this.start && size<this.start+this.count)
+                    items.add(c);
+                size++;
+            }
+        }
+
+        /**
+         * Children on this page.
+         */
+        public List<C> getItems() {
+            return items;
+        }
+
+        /**
+         * Number of children that matched the filter, across all the pages.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public String getSort() {
+            return order.name().toLowerCase(Locale.ENGLISH);
+        }
+
+        public String getFilter() {
+            return filter==null ? "" : filter.name().toLowerCase(Locale.ENGLISH);
+        }
+
+        public boolean hasPrevious() {
+            return start>0;
+        }
+
+        public boolean hasNext() {
+            return start+count<size;
+        }
+
+        public int getPreviousStart() {
+            return Math.max(0,start-count);
+        }
+
+        public int getNextStart() {
+            return start+count;
+        }
+    }
+
+    @Override
+    S copy() {
+        S r = super.copy();
+        for (C c : getChildren())
+            r.add(c.copy());
+        return r;
+    }
+
     // method for stapler
     public C getDynamic(String name, StaplerRequest req, StaplerResponse rsp) {
         return get(name);
@@ -0,0 +1,110 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Duration of one {@link TestObject}, persisted with the build
+ * so that slow tests can be ranked without loading the report.
+ */
+public final class TestDuration {
+    /**
+     * Path relative to the {@link Report}. See {@link TestObject#getRelativePath()}.
+     */
+    private final String path;
+    private final String displayName;
+    /**
+     * In seconds.
+     */
+    private final float duration;
+
+    TestDuration(String path, String displayName, float duration) {
+        this.path = path;
+        this.displayName = displayName;
+        this.duration = duration;
+    }
+
+    TestDuration(TestObject<?> t) {
+        this(t.getRelativePath(),t.getDisplayName(),t.getDuration());
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public float getDuration() {
+        return duration;
+    }
+
+    public String getDurationString() {
+        return Util.getTimeSpanString((long)(duration*1000));
+    }
+
+    /**
+     * Finds the K slowest runnable tests in the report.
+     */
+    static List<TestDuration> slowestTests(Report r, int k) {
+        final TopK top = new TopK(k);
+        new TestVisitor() {
+            void visit(TestObject<?> t) {
+                top.offer(t);
+            }
+        }.walk(r);
+        return top.toList();
+    }
+
+    /**
+     * Finds the K slowest {@link Suite}s in the report.
+     */
+    static List<TestDuration> slowestSuites(Report r, int k) {
+        TopK top = new TopK(k);
+        for (Suite s : r.getChildren())
+            top.offer(s);
+        return top.toList();
+    }
+
+    /**
+     * Keeps the K largest durations seen so far in a min-heap,
+     * so that ranking N tests takes O(N log K) time and O(K) space.
+     */
+    private static final class TopK {
+        private final int k;
+        private final PriorityQueue<TestDuration> heap;
+
+        TopK(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<TestDuration>(k+1,Collections.reverseOrder(SLOWEST_FIRST));
+        }
+
+        void offer(TestObject<?> t) {
+            float d = t.getDuration();
+            if(d<0)     return;     // no timing information
+            if(heap.size()>=k && heap.peek().duration>=d)
+                return;
+            heap.add(new TestDuration(t));
+            if(heap.size()>k)
+                heap.poll();
+        }
+
+        List<TestDuration> toList() {
+            List<TestDuration> r = new ArrayList<TestDuration>(heap);
+            Collections.sort(r,SLOWEST_FIRST);
+            return r;
+        }
+    }
+
+    private static final Comparator<TestDuration> SLOWEST_FIRST = new Comparator<TestDuration>() {
+        public int compare(TestDuration lhs, TestDuration rhs) {
+            return Float.compare(rhs.duration,lhs.duration);
+        }
+    };
+}
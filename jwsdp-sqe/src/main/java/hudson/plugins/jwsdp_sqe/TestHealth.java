@@ -0,0 +1,210 @@
+package hudson.plugins.jwsdp_sqe;
+
+import hudson.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Rolling pass rate, failure age and time to fix of one {@link TestObject},
+ * carried over from build to build.
+ *
+ * <p>
+ * The outcomes of the last {@link #MAX_WINDOW} runs are kept as a bit set,
+ * so recording a run and computing a pass rate over any window up to that size
+ * are constant time. Builds where the test didn't run (or was skipped) don't count as runs.
+ */
+public final class TestHealth {
+    /**
+     * Outcomes of the recent runs. Bit 0 of h0 is the latest run; 1 means passed.
+     */
+    private long h0,h1,h2,h3;
+    /**
+     * Number of valid bits, up to {@link #MAX_WINDOW}.
+     */
+    private int runs;
+    /**
+     * Number of the build this test last ran in.
+     */
+    private int lastBuild;
+    /**
+     * Number of consecutive failed runs up to the latest one.
+     */
+    private int failStreak;
+    /**
+     * Build number and time stamp of the first failure in the current streak, if failing.
+     */
+    private int failingSince;
+    private long failingSinceTime;
+    /**
+     * Number of times this test went from failing to passing, and the total time it took.
+     */
+    private int fixCount;
+    private long fixMillis;
+
+    TestHealth() {
+    }
+
+    TestHealth(TestHealth that) {
+        this.h0 = that.h0;
+        this.h1 = that.h1;
+        this.h2 = that.h2;
+        this.h3 = that.h3;
+        this.runs = that.runs;
+        this.lastBuild = that.lastBuild;
+        this.failStreak = that.failStreak;
+        this.failingSince = that.failingSince;
+        this.failingSinceTime = that.failingSinceTime;
+        this.fixCount = that.fixCount;
+        this.fixMillis = that.fixMillis;
+    }
+
+    /**
+     * Records the outcome of a run.
+     */
+    void record(boolean passed, int buildNumber, long timestamp) {
+        h3 = (h3<<1) | (h2>>>63);
+        h2 = (h2<<1) | (h1>>>63);
+        h1 = (h1<<1) | (h0>>>63);
+        h0 = (h0<<1) | (passed ? 1 : 0);
+        if(runs<MAX_WINDOW) runs++;
+        lastBuild = buildNumber;
+
+        if(passed) {
+            if(failStreak>0) {
+                fixCount++;
+                fixMillis += timestamp-failingSinceTime;
+            }
+            failStreak = 0;
+            failingSince = 0;
+            failingSinceTime = 0;
+        } else {
+            if(failStreak++==0) {
+                failingSince = buildNumber;
+                failingSinceTime = timestamp;
+            }
+        }
+    }
+
+    /**
+     * Number of runs recorded so far, up to {@link #MAX_WINDOW}.
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    int getLastBuild() {
+        return lastBuild;
+    }
+
+    /**
+     * Gets the percentage of the last {@code window} runs that passed.
+     *
+     * @return -1
+     *      if the test never ran.
+     */
+    public float getPassRate(int window) {
+        int n = Math.min(Math.min(window,MAX_WINDOW),runs);
+        if(n==0)    return -1;
+        return 100f*passes(n)/n;
+    }
+
+    /**
+     * Formats {@link #getPassRate(int)} for display.
+     */
+    public String getPassRateString(int window) {
+        float r = getPassRate(window);
+        return r<0 ? "-" : String.format("%.1f%%",r);
+    }
+
+    private int passes(int n) {
+        return bitCount(h0,n) + bitCount(h1,n-64) + bitCount(h2,n-128) + bitCount(h3,n-192);
+    }
+
+    private static int bitCount(long bits, int n) {
+        if(n<=0)    return 0;
+        if(n<64)    bits &= (1L<<n)-1;
+        return Long.bitCount(bits);
+    }
+
+    public float getPassRate10() {
+        return getPassRate(10);
+    }
+
+    public float getPassRate50() {
+        return getPassRate(50);
+    }
+
+    public float getPassRate200() {
+        return getPassRate(200);
+    }
+
+    /**
+     * Number of consecutive failed runs, or 0 if the test is passing.
+     */
+    public int getFailureAge() {
+        return failStreak;
+    }
+
+    /**
+     * Number of the build where the current streak of failures started, or 0 if the test is passing.
+     */
+    public int getFailingSince() {
+        return failingSince;
+    }
+
+    /**
+     * Average time from a failure to the build that fixed it, in milliseconds.
+     *
+     * @return -1
+     *      if this test was never fixed.
+     */
+    public long getMeanTimeToFix() {
+        if(fixCount==0) return -1;
+        return fixMillis/fixCount;
+    }
+
+    public String getMeanTimeToFixString() {
+        return Util.getTimeSpanString(getMeanTimeToFix());
+    }
+
+    public int getFixCount() {
+        return fixCount;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(h0);
+        out.writeLong(h1);
+        out.writeLong(h2);
+        out.writeLong(h3);
+        out.writeShort(runs);
+        out.writeInt(lastBuild);
+        out.writeInt(failStreak);
+        out.writeInt(failingSince);
+        out.writeLong(failingSinceTime);
+        out.writeInt(fixCount);
+        out.writeLong(fixMillis);
+    }
+
+    static TestHealth read(DataInput in) throws IOException {
+        TestHealth h = new TestHealth();
+        h.h0 = in.readLong();
+        h.h1 = in.readLong();
+        h.h2 = in.readLong();
+        h.h3 = in.readLong();
+        h.runs = in.readShort();
+        h.lastBuild = in.readInt();
+        h.failStreak = in.readInt();
+        h.failingSince = in.readInt();
+        h.failingSinceTime = in.readLong();
+        h.fixCount = in.readInt();
+        h.fixMillis = in.readLong();
+        return h;
+    }
+
+    /**
+     * Largest window a pass rate can be computed over.
+     */
+    public static final int MAX_WINDOW = 256;
+}
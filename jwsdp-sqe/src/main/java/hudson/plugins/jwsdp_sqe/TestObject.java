@@ -1,5 +1,6 @@
 package hudson.plugins.jwsdp_sqe;
 
+import hudson.Util;
 import hudson.model.ModelObject;
 import hudson.model.AbstractBuild;
 import hudson.util.ChartUtil;
@@ -59,6 +60,11 @@ public abstract class TestObject<S extends TestObject<S>>
      */
     private String statusMessage;
 
+    /**
+     * Time it took to run this test in seconds, or -1 if the report doesn't say.
+     */
+    private float duration = -1;
+
     // set by the TestCollection when this is added to it.
     TestCollection parent;
 
@@ -82,30 +88,48 @@ public abstract class TestObject<S extends TestObject<S>>
     }
 
     /**
-     * Removes the characters in the string that are reserved in a URI
-     * @param id
-     * @return
+     * Removes the characters in the string that are reserved in a URI, as well as
+     * the surrounding whitespace. Returns the string itself if there's nothing to remove,
+     * which is almost always the case.
      */
-    private String mangleId(String id) {
-        StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < id.length(); i++) {
-            if (!ignoreChar(id.charAt(i))) {
-                sb.append(id.charAt(i));
-            }
+    static String mangleId(String id) {
+        int end = id.length();
+        int start = 0;
+        while(start<end && id.charAt(start)<=' ')
+            start++;
+        while(end>start && id.charAt(end-1)<=' ')
+            end--;
+
+        int i = start;
+        while(i<end && !isReserved(id.charAt(i)))
+            i++;
+        if(i==end)
+            return start==0 && end==id.length() ? id : id.substring(start,end);
+
+        char[] buf = new char[end-start];
+        int len = i-start;
+        id.getChars(start,i,buf,0);
+        for (; i<end; i++) {
+            char c = id.charAt(i);
+            if(!isReserved(c))
+                buf[len++] = c;
         }
-        return sb.toString();
+        return new String(buf,0,len);
     }
 
-    private static char[] reserved = {'!','*','\'','(',')',';',':','@','&','=','+','$',',','/','?','%','#','[',']'};
-    private static boolean ignoreChar(char c) {
-        for (char rch: reserved) {
-            if (c == rch) {
-                return true;
-            }
-        }
-        return false;
+    private static boolean isReserved(char c) {
+        return c<RESERVED.length && RESERVED[c];
+    }
+
+    /**
+     * Characters that are reserved in a URI, indexed by the character.
+     */
+    private static final boolean[] RESERVED = new boolean[128];
+    static {
+        for (char c : "!*'();:@&=+$,/?%#[]".toCharArray())
+            RESERVED[c] = true;
     }
-    
+
     public String getName() {
         return name;
     }
@@ -129,7 +153,23 @@ public abstract class TestObject<S extends TestObject<S>>
             return id;
     }
 
+    /**
+     * Gets the path of this object relative to the {@link Report}, such as "suite/test/testcase".
+     * The {@link Report} itself has an empty path.
+     */
+    public String getRelativePath() {
+        if(parent==null)
+            return "";
+        String p = parent.getRelativePath();
+        if(p.length()==0)
+            return getId();
+        return p+'/'+getId();
+    }
+
     public AbstractBuild getOwner() {
+        Report root = getReport();
+        if(root!=null)
+            return root.getOwner(this);
         return parent.getOwner();
     }
 
@@ -140,11 +180,42 @@ public abstract class TestObject<S extends TestObject<S>>
      *      if no such counter part exists.
      */
     public S getPreviousResult() {
+        Report root = getReport();
+        if(root!=null) {
+            // one lookup in the previous report, instead of one per level
+            Report prev = root.getPreviousResult();
+            if(prev==null)  return null;
+            TestObject<?> t = prev.getCounterpart(this);
+            if(t!=null && getClass().isInstance(t))
+                return (S)t;
+            return null;
+        }
         TestCollection p = (TestCollection)parent.getPreviousResult();
         if(p!=null)     return (S)p.get(getId());
         else            return null;
     }
 
+    /**
+     * Gets the pass rate, failure age and time to fix of this object, as of this build.
+     *
+     * @return null
+     *      if it's not known.
+     */
+    public TestHealth getHealth() {
+        Report root = getReport();
+        return root!=null ? root.getHealth(this) : null;
+    }
+
+    /**
+     * Gets the {@link Report} this object belongs to, or null if it's not (yet) part of one.
+     */
+    Report getReport() {
+        TestObject<?> t = this;
+        while(t.parent!=null)
+            t = t.parent;
+        return t instanceof Report ? (Report)t : null;
+    }
+
 
     public Status getStatus() {
         return status;
@@ -152,13 +223,44 @@ public abstract class TestObject<S extends TestObject<S>>
 
     // Digester don't understand enum
     public void setStatusString(String status) {
-        if(status.equalsIgnoreCase("pass"))
-            this.status = Status.PASS;
-        else
-        if(status.equalsIgnoreCase("did_not_run"))
-            this.status = Status.SKIP;
-        else
-            this.status = Status.FAIL;
+        this.status = parseStatus(status);
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * Decodes the value of the status element, ignoring case like {@link String#equalsIgnoreCase(String)}.
+     * Anything other than "pass" and "did_not_run" is a failure.
+     * Works on any character buffer, so the parser doesn't need to make a string of it.
+     */
+    static Status parseStatus(CharSequence s) {
+        switch (s.length()) {
+        case 4:
+            if(equalsIgnoreCase(s,"pass"))          return Status.PASS;
+            break;
+        case 11:
+            if(equalsIgnoreCase(s,"did_not_run"))   return Status.SKIP;
+            break;
+        }
+        return Status.FAIL;
+    }
+
+    /**
+     * Compares the same way as {@link String#equalsIgnoreCase(String)}, given the same length.
+     */
+    private static boolean equalsIgnoreCase(CharSequence s, String lower) {
+        for (int i=0; i<lower.length(); i++) {
+            char c = s.charAt(i);
+            char l = lower.charAt(i);
+            if(c==l)    continue;
+            char u = Character.toUpperCase(c);
+            if(u==Character.toUpperCase(l) || Character.toLowerCase(u)==l)
+                continue;
+            return false;
+        }
+        return true;
     }
 
     public String getStatusMessage() {
@@ -169,6 +271,60 @@ public abstract class TestObject<S extends TestObject<S>>
         this.statusMessage = statusMessage;
     }
 
+    /**
+     * Gets the time it took to run this test in seconds.
+     *
+     * @return -1
+     *      if the report has no timing information.
+     */
+    public float getDuration() {
+        return duration;
+    }
+
+    /**
+     * Human readable form of {@link #getDuration()}, or null if it's unknown.
+     */
+    public String getDurationString() {
+        float d = getDuration();
+        if(d<0)     return null;
+        return Util.getTimeSpanString((long)(d*1000));
+    }
+
+    // Digester sets this from either a <time>/<duration> element or attribute, in seconds
+    public void setDurationString(String duration) {
+        try {
+            this.duration = Float.parseFloat(duration.trim());
+        } catch (NumberFormatException e) {
+            // ignore the bogus value and treat as unknown
+        }
+    }
+
+    /**
+     * Creates a detached copy of this object, with the data parsed from the report
+     * but without the position in the tree. Collections copy their children, too.
+     */
+    S copy() {
+        S r;
+        try {
+            r = (S)getClass().newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Can't copy "+getClass(),e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't copy "+getClass(),e);
+        }
+        r.copyFrom(this);
+        return r;
+    }
+
+    void copyFrom(TestObject<?> that) {
+        this.id = that.id;
+        this.name = that.name;
+        this.description = that.description;
+        this.status = that.status;
+        this.statusMessage = that.statusMessage;
+        this.duration = that.duration;
+    }
+
     public abstract int getTotalCount();
     public abstract int getFailCount();
 
@@ -176,6 +332,7 @@ public abstract class TestObject<S extends TestObject<S>>
      * Generates a PNG image for the test result trend.
      */
     public void doTestTrendGraph( StaplerRequest req, StaplerResponse rsp) throws IOException {
+        long start = System.currentTimeMillis();
         if(ChartUtil.awtProblemCause != null) {
             // not available. send out error message
             rsp.sendRedirect2(req.getContextPath()+"/images/headless.png");
@@ -185,53 +342,77 @@ public abstract class TestObject<S extends TestObject<S>>
         if(req.checkIfModified(getOwner().getTimestamp(),rsp))
             return;
 
-        class BuildLabel implements Comparable<BuildLabel> {
-            private final AbstractBuild build;
-
-            public BuildLabel(AbstractBuild build) {
-                this.build = build;
-            }
+        boolean failureOnly = Boolean.valueOf(req.getParameter("failureOnly"));
 
-            public int compareTo(BuildLabel that) {
-                return this.build.number-that.build.number;
-            }
+        DataSetBuilder<String,BuildLabel> dsb = new DataSetBuilder<String,BuildLabel>();
 
-            @Override
-            public boolean equals(Object o) {
-                BuildLabel that = (BuildLabel) o;
-                return build==that.build;
-            }
+        for(TestObject a=this; a!=null; a=a.getPreviousResult() ) {
+            dsb.add( a.getFailCount(), "failed", new BuildLabel(a.getOwner()));
+            if(!failureOnly)
+                dsb.add( a.getTotalCount()-a.getFailCount(),"total", new BuildLabel(a.getOwner()));
+        }
 
-            @Override
-            public int hashCode() {
-                return build.hashCode();
-            }
+        ChartUtil.generateGraph(req,rsp,createChart(dsb.build(),"count"),500,200);
+        SQEStats.INSTANCE.onTrendGraph(System.currentTimeMillis()-start);
+    }
 
-            @Override
-            public String toString() {
-                return build.getDisplayName();
-            }
+    /**
+     * Generates a PNG image for the trend of {@link #getDuration()}.
+     */
+    public void doDurationTrendGraph( StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if(ChartUtil.awtProblemCause != null) {
+            // not available. send out error message
+            rsp.sendRedirect2(req.getContextPath()+"/images/headless.png");
+            return;
         }
 
-        boolean failureOnly = Boolean.valueOf(req.getParameter("failureOnly"));
+        if(req.checkIfModified(getOwner().getTimestamp(),rsp))
+            return;
 
         DataSetBuilder<String,BuildLabel> dsb = new DataSetBuilder<String,BuildLabel>();
 
-        for(TestObject a=this; a!=null; a=a.getPreviousResult() ) {
-            dsb.add( a.getFailCount(), "failed", new BuildLabel(a.getOwner()));
-            if(!failureOnly)
-                dsb.add( a.getTotalCount()-a.getFailCount(),"total", new BuildLabel(a.getOwner()));
+        for(TestObject a=this; a!=null; a=a.getPreviousResult() )
+            dsb.add( Math.max(0,a.getDuration()), "duration", new BuildLabel(a.getOwner()));
+
+        JFreeChart chart = createChart(dsb.build(),"seconds");
+        ((AreaRenderer)chart.getCategoryPlot().getRenderer()).setSeriesPaint(0,new Color(0x72,0x9F,0xCF));
+        ChartUtil.generateGraph(req,rsp,chart,500,200);
+    }
+
+    private static final class BuildLabel implements Comparable<BuildLabel> {
+        private final AbstractBuild build;
+
+        public BuildLabel(AbstractBuild build) {
+            this.build = build;
+        }
+
+        public int compareTo(BuildLabel that) {
+            return this.build.number-that.build.number;
         }
 
-        ChartUtil.generateGraph(req,rsp,createChart(dsb.build()),500,200);
+        @Override
+        public boolean equals(Object o) {
+            BuildLabel that = (BuildLabel) o;
+            return build==that.build;
+        }
+
+        @Override
+        public int hashCode() {
+            return build.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return build.getDisplayName();
+        }
     }
 
-    private JFreeChart createChart(CategoryDataset dataset) {
+    private JFreeChart createChart(CategoryDataset dataset, String rangeAxisLabel) {
 
         final JFreeChart chart = ChartFactory.createStackedAreaChart(
             null,                   // chart title
             null,                   // unused
-            "count",                  // range axis label
+            rangeAxisLabel,           // range axis label
             dataset,                  // data
             PlotOrientation.VERTICAL, // orientation
             false,                     // include legend
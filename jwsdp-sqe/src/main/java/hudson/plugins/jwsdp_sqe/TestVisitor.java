@@ -0,0 +1,31 @@
+package hudson.plugins.jwsdp_sqe;
+
+import java.util.Collection;
+
+/**
+ * Visits the {@link TestObject}s of a report that count as runnable tests,
+ * that is, the same objects that {@link TestObject#getTotalCount()} counts.
+ */
+abstract class TestVisitor {
+    /**
+     * Called for each runnable test, in the order of the tree.
+     */
+    abstract void visit(TestObject<?> t);
+
+    /**
+     * Walks the tree rooted at the given object.
+     */
+    final void walk(TestObject<?> t) {
+        if(t instanceof TestCollection) {
+            Collection<? extends TestObject<?>> children = ((TestCollection<?,?>)t).getChildren();
+            for (TestObject<?> c : children)
+                walk(c);
+            // a test with test cases only counts as a test by itself if asked to
+            if(!(t instanceof Test))
+                return;
+            if(!children.isEmpty() && !((Test)t).considerTestAsTestObject)
+                return;
+        }
+        visit(t);
+    }
+}
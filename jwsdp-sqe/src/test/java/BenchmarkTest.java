@@ -0,0 +1,279 @@
+import hudson.plugins.jwsdp_sqe.Report;
+import hudson.plugins.jwsdp_sqe.Suite;
+import hudson.plugins.jwsdp_sqe.Test;
+import hudson.plugins.jwsdp_sqe.TestCollection;
+import hudson.plugins.jwsdp_sqe.TestObject;
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Guards the parse, load, navigation and trend paths, and the id and status handling
+ * of every node, against performance regressions.
+ *
+ * <p>
+ * Each benchmark runs on a {@link SyntheticReport} in-process, and its cost is compared
+ * against <tt>benchmark-baseline.properties</tt>. Time is measured relative to a plain SAX pass
+ * over the same report, so that the baseline holds across machines; allocation is measured
+ * in bytes per test case. A benchmark without a baseline fails.
+ *
+ * <p>
+ * The benchmarks only run with <tt>-Dsqe.benchmark=true</tt>, as they take a while and
+ * want a quiet machine. <tt>mvn -Pbenchmark test</tt> sets it and runs nothing else;
+ * the default build leaves this class out. The numbers of every run are written to
+ * <tt>target/benchmark-results.properties</tt>. To accept a change in performance,
+ * or to add a benchmark, copy them into the baseline.
+ */
+public class BenchmarkTest extends TestCase {
+    private static final SyntheticReport SHAPE = new SyntheticReport(10,20,10);
+    private static final int CASES = SHAPE.suites*SHAPE.tests*SHAPE.cases;
+    /**
+     * Number of builds in the trend benchmark.
+     */
+    private static final int BUILDS = 20;
+
+    private static File dir;
+    private static File[] reports;
+    private static final Properties results = new Properties();
+
+    private Properties baseline;
+
+    @Override
+    public void runBare() throws Throwable {
+        if(Boolean.getBoolean("sqe.benchmark"))
+            super.runBare();
+        else
+            System.err.println("Skipped "+getName()+": run with -Dsqe.benchmark=true (mvn -Pbenchmark test)");
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        if(dir==null) {
+            dir = new File(System.getProperty("java.io.tmpdir"),"sqe-benchmark-"+System.nanoTime());
+            dir.mkdirs();
+            reports = new File[BUILDS];
+            for (int i=0; i<BUILDS; i++) {
+                reports[i] = SHAPE.write(new File(dir,"report"+i+".xml"),i);
+                reports[i].deleteOnExit();
+            }
+            dir.deleteOnExit();
+        }
+        baseline = new Properties();
+        InputStream in = getClass().getResourceAsStream("benchmark-baseline.properties");
+        if(in!=null) {
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    public void testParse() throws Exception {
+        benchmark("parse", new Op() {
+            public void run() throws Exception {
+                newReport().add(new InputSource(reports[0].toURI().toString()));
+            }
+        });
+    }
+
+    public void testLoad() throws Exception {
+        benchmark("load", new Op() {
+            public void run() throws Exception {
+                newReport().add(reports[0]);
+            }
+        });
+    }
+
+    public void testNavigation() throws Exception {
+        final Report r = load(reports[0]);
+        benchmark("navigation", new Op() {
+            public void run() throws Exception {
+                // every object, one level at a time as Stapler resolves them
+                for (Suite s : r.getChildren())
+                    for (Test t : r.get(s.getId()).getChildren())
+                        for (hudson.plugins.jwsdp_sqe.TestCase c : s.get(t.getId()).getChildren())
+                            assertNotNull(t.get(c.getId()));
+            }
+        });
+    }
+
+    public void testTrend() throws Exception {
+        Report prev = null;
+        for (int i=0; i<BUILDS; i++)
+            prev = load(reports[i],prev);
+        final Report last = prev;
+        final List<TestObject<?>> nodes = nodes(last);
+        benchmark("trend", new Op() {
+            public void run() throws Exception {
+                // what the trend graph of every object does: walk back through the builds and read the counts
+                int sum = 0;
+                for (TestObject<?> t : nodes)
+                    for (TestObject<?> a=t; a!=null; a=a.getPreviousResult())
+                        sum += a.getFailCount()+a.getTotalCount();
+                assertTrue(sum>0);
+            }
+        });
+    }
+
+    public void testIds() throws Exception {
+        final String[] ids = new String[CASES];
+        final String[] statuses = {"pass","fail","did_not_run","PASS"};
+        for (int i=0; i<CASES; i++)
+            // padded like the reports, and now and then with characters that need to go
+            ids[i] = i%50==0 ? " v10.x2j(#"+i+") " : " v10.x2j.test"+i+" ";
+        final hudson.plugins.jwsdp_sqe.TestCase t = new hudson.plugins.jwsdp_sqe.TestCase();
+        benchmark("ids", new Op() {
+            public void run() throws Exception {
+                for (int i=0; i<ids.length; i++) {
+                    t.setId(ids[i]);
+                    t.setStatusString(statuses[i&3]);
+                }
+            }
+        });
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    private void benchmark(String name, Op op) throws Exception {
+        SAXParser parser = newSAXParser();
+        for (int i=0; i<WARMUP; i++) {
+            parser.parse(reports[0],new DefaultHandler());
+            op.run();
+        }
+
+        // interleaved with the SAX pass, so that both see the same state of the machine
+        long sax = Long.MAX_VALUE;
+        long best = Long.MAX_VALUE;
+        long alloc = 0;
+        for (int i=0; i<ITERATIONS; i++) {
+            long start = System.nanoTime();
+            parser.parse(reports[0],new DefaultHandler());
+            sax = Math.min(sax,System.nanoTime()-start);
+
+            long a = allocatedBytes();
+            start = System.nanoTime();
+            op.run();
+            best = Math.min(best,System.nanoTime()-start);
+            alloc = a<0 ? -1 : alloc+allocatedBytes()-a;
+        }
+        if(alloc>=0)
+            alloc = alloc/ITERATIONS/CASES;
+
+        double cost = (double)best/sax;
+        System.out.printf("%s: %.2f x SAX, %d bytes/testcase, %.0f testcases/s%n", name, cost, alloc, CASES*1e9/best);
+        results.setProperty(name+".cost",String.format("%.3f",cost));
+        if(alloc>=0)
+            results.setProperty(name+".alloc",String.valueOf(alloc));
+        saveResults();
+
+        check(name+".cost", cost, "tolerance.cost");
+        if(alloc>=0)
+            check(name+".alloc", alloc, "tolerance.alloc");
+    }
+
+    private void check(String key, double actual, String toleranceKey) {
+        String base = baseline.getProperty(key);
+        if(base==null)
+            fail(String.format("%s has no baseline. It measured %.3f, see target/benchmark-results.properties",key,actual));
+        double limit = Double.parseDouble(base)*(1+Double.parseDouble(baseline.getProperty(toleranceKey,"0.5")));
+        assertTrue(String.format("%s regressed: %.3f against the baseline of %s (limit %.3f)",key,actual,base,limit),
+                actual<=limit);
+    }
+
+    /**
+     * Parser for the plain SAX pass over the report, which the other timings are relative to.
+     */
+    private static SAXParser newSAXParser() throws Exception {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true);
+        return spf.newSAXParser();
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or -1 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+        if(!b.isThreadAllocatedMemorySupported() || !b.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void saveResults() throws IOException {
+        File f = new File(System.getProperty("sqe.benchmark.results","target/benchmark-results.properties"));
+        f.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(f);
+        try {
+            results.store(out,"SQE benchmark results");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<TestObject<?>> nodes(TestObject<?> t) {
+        List<TestObject<?>> r = new ArrayList<TestObject<?>>();
+        collect(t,r);
+        return r;
+    }
+
+    private static void collect(TestObject<?> t, List<TestObject<?>> r) {
+        r.add(t);
+        if(t instanceof TestCollection)
+            for (Object c : ((TestCollection<?,?>)t).getChildren())
+                collect((TestObject<?>)c,r);
+    }
+
+    private static Report load(File f) throws Exception {
+        return load(f,null);
+    }
+
+    /**
+     * Loads a report as the build after the one that produced the given report.
+     */
+    private static Report load(File f, final Report previous) throws Exception {
+        Report r = new Report(null) {
+            @Override
+            protected boolean considersTestAsTestObject() {
+                return false;
+            }
+
+            @Override
+            public Report getPreviousResult() {
+                return previous;
+            }
+        };
+        r.add(f);
+        return r;
+    }
+
+    private static Report newReport() {
+        return new Report(null) {
+            @Override
+            protected boolean considersTestAsTestObject() {
+                return false;
+            }
+        };
+    }
+
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 30;
+}
@@ -0,0 +1,57 @@
+import hudson.plugins.jwsdp_sqe.FailureCluster;
+import hudson.plugins.jwsdp_sqe.Report;
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import java.util.List;
+
+public class FailureClusterTest extends TestCase {
+    public void testEveryFailureIsClustered() throws Exception {
+        Report r = parse("resultValid.xml");
+        List<FailureCluster> clusters = FailureCluster.compute(r);
+
+        int total = 0;
+        for (FailureCluster fc : clusters) {
+            total += fc.getCount();
+            assertFalse(fc.getExamples().isEmpty());
+        }
+        assertEquals(r.getFailCount(),total);
+
+        // largest first
+        for (int i=1; i<clusters.size(); i++)
+            assertTrue(clusters.get(i-1).getCount()>=clusters.get(i).getCount());
+    }
+
+    public void testSignature() throws Exception {
+        assertEquals("timeout after # s",signature("&lt;b>Timeout&lt;/b> after 5 s"));
+        // a '<' that doesn't start a tag is text
+        assertEquals("expected # ms but took # ms",signature("expected &lt; 15000 ms but took 17000 ms"));
+        assertEquals("a b c",signature("a &lt;b c"));
+    }
+
+    private String signature(String message) throws Exception {
+        Report r = newReport();
+        r.add(new InputSource(new StringReader(
+            "<report><testsuites><testsuite><id>s</id><tests><test><id>t</id>"
+           +"<status value='fail'>"+message+"</status></test></tests></testsuite></testsuites></report>")));
+        List<FailureCluster> clusters = FailureCluster.compute(r);
+        assertEquals(1,clusters.size());
+        return clusters.get(0).getSignature();
+    }
+
+    private Report parse(String res) throws Exception {
+        Report r = newReport();
+        r.add(new InputSource(getClass().getResource(res).toExternalForm()));
+        return r;
+    }
+
+    private Report newReport() {
+        return new Report(null) {
+            @Override
+            protected boolean considersTestAsTestObject() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+import hudson.plugins.jwsdp_sqe.MappedReportReader;
+import hudson.plugins.jwsdp_sqe.Report;
+import hudson.plugins.jwsdp_sqe.TestCollection;
+import hudson.plugins.jwsdp_sqe.TestObject;
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+
+/**
+ * Makes sure {@link MappedReportReader} builds the same model as Digester.
+ */
+public class MappedReportReaderTest extends TestCase {
+    public void testResultValid() throws Exception {
+        compare("resultValid.xml");
+    }
+
+    public void testJaxb() throws Exception {
+        compare("jaxb-sqeValid.xml");
+    }
+
+    public void testTimed() throws Exception {
+        compare("resultTimed.xml");
+    }
+
+    /**
+     * Only the timing attributes are mapped onto the model.
+     */
+    public void testAttributes() throws Exception {
+        File f = write("<report><testsuite name='attr' time='2'><id>s</id></testsuite></report>");
+        Report expected = newReport();
+        expected.add(new InputSource(f.toURI().toString()));
+        Report actual = newReport();
+        assertTrue(MappedReportReader.read(actual,f));
+        assertSameTree(expected,actual);
+
+        TestObject<?> s = actual.getChildren().iterator().next();
+        assertNull(s.getName());
+        assertEquals(2f,s.getDuration());
+    }
+
+    public void testStrayEndTag() throws Exception {
+        assertMalformed("<report><testsuite><id>s</id></testsuite></testsuite></report>");
+    }
+
+    public void testMismatchedEndTag() throws Exception {
+        assertMalformed("<report><testsuite><id>s</id><test><id>t</id><testcase><id>c</id></test></testcase></testsuite></report>");
+    }
+
+    /**
+     * Giving up half way through must not leave anything behind in the report.
+     */
+    public void testUnsupportedLeavesReportUntouched() throws Exception {
+        Report r = newReport();
+        assertFalse(MappedReportReader.read(r,write("<report><name>x</name><testsuite><id>s</id><!DOCTYPE x></testsuite></report>")));
+        assertEquals("SQE Test Result",r.getName());
+        assertEquals(0,r.getChildren().size());
+    }
+
+    /**
+     * Character references outside of Unicode are left to Digester.
+     */
+    public void testInvalidCharacterReference() throws Exception {
+        assertFalse(MappedReportReader.read(newReport(),write("<report><testsuite><id>&#-1;</id></testsuite></report>")));
+        assertFalse(MappedReportReader.read(newReport(),write("<report><testsuite><id>&#x110000;</id></testsuite></report>")));
+    }
+
+    private void assertMalformed(String xml) throws IOException {
+        try {
+            MappedReportReader.read(newReport(),write(xml));
+            fail();
+        } catch (SAXException e) {
+            // expected
+        }
+    }
+
+    private File write(String xml) throws IOException {
+        File f = File.createTempFile("report",".xml");
+        f.deleteOnExit();
+        Writer w = new FileWriter(f);
+        try {
+            w.write(xml);
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    private void compare(String res) throws Exception {
+        Report expected = newReport();
+        expected.add(new InputSource(getClass().getResource(res).toExternalForm()));
+
+        Report actual = newReport();
+        assertTrue(MappedReportReader.read(actual,new File(getClass().getResource(res).toURI())));
+
+        assertSameTree(expected,actual);
+    }
+
+    private void assertSameTree(TestObject<?> expected, TestObject<?> actual) {
+        assertEquals(expected.getId(),actual.getId());
+        assertEquals(expected.getName(),actual.getName());
+        assertEquals(expected.getDescription(),actual.getDescription());
+        assertEquals(expected.getStatus(),actual.getStatus());
+        assertEquals(expected.getStatusMessage(),actual.getStatusMessage());
+        assertEquals(expected.getDuration(),actual.getDuration());
+        assertEquals(expected.getFailCount(),actual.getFailCount());
+        assertEquals(expected.getTotalCount(),actual.getTotalCount());
+
+        if(expected instanceof TestCollection) {
+            Iterator<? extends TestObject<?>> e = ((TestCollection<?,?>)expected).getChildren().iterator();
+            Iterator<? extends TestObject<?>> a = ((TestCollection<?,?>)actual).getChildren().iterator();
+            while(e.hasNext()) {
+                assertTrue(a.hasNext());
+                assertSameTree(e.next(),a.next());
+            }
+            assertFalse(a.hasNext());
+        }
+    }
+
+    private Report newReport() {
+        return new Report(null) {
+            @Override
+            protected boolean considersTestAsTestObject() {
+                return false;
+            }
+        };
+    }
+}
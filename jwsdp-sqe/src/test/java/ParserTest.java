@@ -1,4 +1,7 @@
 import hudson.plugins.jwsdp_sqe.Report;
+import hudson.plugins.jwsdp_sqe.Suite;
+import hudson.plugins.jwsdp_sqe.TestCollection;
+import hudson.plugins.jwsdp_sqe.TestObject;
 import junit.framework.TestCase;
 import org.xml.sax.InputSource;
 
@@ -18,14 +21,54 @@ public class ParserTest extends TestCase {
         parse("jaxb-sqeValid.xml");
     }
 
-    private void parse(String res) throws Exception {
+    public void testDuration() throws Exception {
+        Report r = parse("resultTimed.xml");
+        Suite s = r.get("timed");
+        assertEquals(1.5f, s.get("timed.withTime").getDuration());
+        assertEquals(2.5f, s.get("timed.withCases").getDuration());
+        assertEquals(-1f, s.get("timed.untimed").getDuration());
+        assertEquals(4f, s.getDuration());
+        assertEquals(4f, r.getDuration());
+    }
+
+    public void testPreviousResult() throws Exception {
+        checkPrevious(parse("resultValid.xml",parse("resultValid.xml")));
+
+        // nothing in common with the previous build
+        Report r = parse("resultValid.xml",parse("resultTimed.xml"));
+        for (Suite s : r.getChildren())
+            assertNull(s.getPreviousResult());
+    }
+
+    private void checkPrevious(TestObject<?> t) {
+        TestObject<?> p = t.getPreviousResult();
+        assertNotNull(p);
+        assertNotSame(t,p);
+        assertEquals(t.getRelativePath(),p.getRelativePath());
+        assertSame(t.getClass(),p.getClass());
+        if(t instanceof TestCollection)
+            for (Object c : ((TestCollection<?,?>)t).getChildren())
+                checkPrevious((TestObject<?>)c);
+    }
+
+    private Report parse(String res) throws Exception {
+        return parse(res,null);
+    }
+
+    private Report parse(String res, final Report previous) throws Exception {
         Report r = new Report(null) {
             @Override
             protected boolean considersTestAsTestObject() {
                 return false;
             }
+
+            @Override
+            public Report getPreviousResult() {
+                return previous;
+            }
         };
         r.add(new InputSource(getClass().getResource(res).toExternalForm()));
         System.out.println(r.getFailCount()+"/"+r.getTotalCount());
+        return r;
     }
 }
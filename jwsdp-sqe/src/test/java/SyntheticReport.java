@@ -0,0 +1,69 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Generates SQE reports of a given shape for {@link BenchmarkTest}.
+ *
+ * <p>
+ * The same seed always produces the same report, so the benchmarks measure the same work every time.
+ */
+public class SyntheticReport {
+    final int suites;
+    final int tests;
+    final int cases;
+    /**
+     * One in this many test cases fail.
+     */
+    int failEvery = 20;
+
+    public SyntheticReport(int suites, int tests, int cases) {
+        this.suites = suites;
+        this.tests = tests;
+        this.cases = cases;
+    }
+
+    public File write(File f, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f),"UTF-8")));
+        try {
+            w.println("<report><testsuites>");
+            for (int s=0; s<suites; s++) {
+                String sid = "suite"+s;
+                w.println("<testsuite>");
+                w.println("<id> "+sid+" </id>");
+                w.println("<name>Suite "+s+"</name>");
+                w.println("<description>Generated suite "+s+"</description>");
+                w.println("<tests>");
+                for (int t=0; t<tests; t++) {
+                    String tid = sid+".test"+t;
+                    w.println("<test>");
+                    w.println("<id> "+tid+" </id>");
+                    w.println("<status value=\"pass\"/>");
+                    w.println("<testcases>");
+                    for (int c=0; c<cases; c++) {
+                        boolean fail = rnd.nextInt(failEvery)==0;
+                        w.println("<testcase>");
+                        w.println("<id> "+tid+".case"+c+" </id>");
+                        w.println("<time>"+(rnd.nextInt(5000)/1000f)+"</time>");
+                        w.println("<status value=\""+(fail?"fail":"pass")+"\">"
+                                +(fail?"expected "+rnd.nextInt(100)+" but was "+rnd.nextInt(100):"")+"</status>");
+                        w.println("</testcase>");
+                    }
+                    w.println("</testcases>");
+                    w.println("</test>");
+                }
+                w.println("</tests>");
+                w.println("</testsuite>");
+            }
+            w.println("</testsuites></report>");
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+}
@@ -0,0 +1,174 @@
+import hudson.plugins.jwsdp_sqe.Report;
+import hudson.plugins.jwsdp_sqe.Suite;
+import hudson.plugins.jwsdp_sqe.Test;
+import hudson.plugins.jwsdp_sqe.TestCollection;
+import hudson.plugins.jwsdp_sqe.TestCollection.Page;
+import junit.framework.TestCase;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.xml.sax.InputSource;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Paging, sorting and filtering of the children of a {@link TestCollection}.
+ */
+public class TestCollectionTest extends TestCase {
+    /**
+     * a and d pass, b fails, c didn't run, and two of the three cases of e fail.
+     */
+    private static final String SUITE =
+        "<report><testsuites><testsuite><id>s</id><tests>"
+       +"<test><id>a</id><status value='pass'/></test>"
+       +"<test><id>b</id><status value='fail'/></test>"
+       +"<test><id>c</id><status value='did_not_run'/></test>"
+       +"<test><id>d</id><status value='pass'/></test>"
+       +"<test><id>e</id><status value='fail'/><testcases>"
+       +"<testcase><id>e1</id><status value='fail'/></testcase>"
+       +"<testcase><id>e2</id><status value='pass'/></testcase>"
+       +"<testcase><id>e3</id><status value='fail'/></testcase>"
+       +"</testcases></test>"
+       +"</tests></testsuite></testsuites></report>";
+
+    public void testPageBounds() throws Exception {
+        Suite s = parse(SUITE);
+
+        Page<Test> p = s.getPage(request("count","2"));
+        assertEquals("ab",ids(p.getItems()));
+        assertEquals(5,p.getSize());
+        assertFalse(p.hasPrevious());
+        assertTrue(p.hasNext());
+        assertEquals(2,p.getNextStart());
+
+        p = s.getPage(request("start","4","count","2"));
+        assertEquals("e",ids(p.getItems()));
+        assertTrue(p.hasPrevious());
+        assertEquals(2,p.getPreviousStart());
+        assertFalse(p.hasNext());
+
+        // past the end
+        p = s.getPage(request("start","10","count","2"));
+        assertEquals("",ids(p.getItems()));
+        assertEquals(5,p.getSize());
+        assertFalse(p.hasNext());
+
+        // out of range and malformed values fall back to the defaults
+        p = s.getPage(request("start","-3","count","0"));
+        assertEquals(0,p.getStart());
+        assertEquals(TestCollection.DEFAULT_PAGE_SIZE,p.getCount());
+        assertEquals("abcde",ids(p.getItems()));
+        p = s.getPage(request("start","x","count","y"));
+        assertEquals(0,p.getStart());
+        assertEquals(TestCollection.DEFAULT_PAGE_SIZE,p.getCount());
+    }
+
+    public void testSortKeys() throws Exception {
+        Suite s = parse(SUITE);
+        assertEquals("abcde",ids(s.getPage(request()).getItems()));
+        assertEquals("abcde",ids(s.getPage(request("sort","id")).getItems()));
+        assertEquals("abcde",ids(s.getPage(request("sort","nonsense")).getItems()));
+        // failed, then skipped, then passed. ties stay in id order
+        assertEquals("becad",ids(s.getPage(request("sort","status")).getItems()));
+        assertEquals("ebcad",ids(s.getPage(request("sort","FAILURES")).getItems()));
+        assertEquals("failures",s.getPage(request("sort","FAILURES")).getSort());
+
+        // sorted before the page is cut
+        assertEquals("eb",ids(s.getPage(request("sort","failures","count","2")).getItems()));
+    }
+
+    public void testFilter() throws Exception {
+        Suite s = parse(SUITE);
+        Page<Test> p = s.getPage(request("filter","fail","sort","failures"));
+        assertEquals("eb",ids(p.getItems()));
+        assertEquals(2,p.getSize());
+        assertEquals("fail",p.getFilter());
+        assertEquals("c",ids(s.getPage(request("filter","SKIP")).getItems()));
+        // an unknown status means no filter
+        assertEquals(5,s.getPage(request("filter","nonsense")).getSize());
+    }
+
+    public void testEmptyFilterResult() throws Exception {
+        Suite s = parse("<report><testsuites><testsuite><id>s</id><tests>"
+                +"<test><id>a</id><status value='pass'/></test>"
+                +"</tests></testsuite></testsuites></report>");
+        Page<Test> p = s.getPage(request("filter","fail"));
+        assertTrue(p.getItems().isEmpty());
+        assertEquals(0,p.getSize());
+        assertFalse(p.hasPrevious());
+        assertFalse(p.hasNext());
+        assertEquals("[]",childrenJson(s,request("filter","fail")));
+    }
+
+    public void testChildrenJson() throws Exception {
+        Suite s = parse(SUITE);
+        assertEquals("[{\"id\":\"e\",\"name\":null,\"status\":\"FAIL\",\"failCount\":2,\"totalCount\":3},"
+                +"{\"id\":\"b\",\"name\":null,\"status\":\"FAIL\",\"failCount\":1,\"totalCount\":1}]",
+                childrenJson(s,request("sort","failures","count","2")));
+        // everything without a count, the same window as getPage() with one
+        assertEquals(5,count(childrenJson(s,request())));
+        assertEquals(1,count(childrenJson(s,request("start","1","count","1","filter","pass"))));
+        assertTrue(childrenJson(s,request("start","1","count","1","filter","pass")).contains("\"id\":\"d\""));
+        assertEquals("[]",childrenJson(s,request("start","10")));
+    }
+
+    private static String ids(List<Test> tests) {
+        StringBuilder b = new StringBuilder();
+        for (Test t : tests)
+            b.append(t.getId());
+        return b.toString();
+    }
+
+    private static int count(String json) {
+        return json.split("\"id\"").length-1;
+    }
+
+    private static String childrenJson(TestCollection<?,?> c, StaplerRequest req) throws Exception {
+        final StringWriter out = new StringWriter();
+        StaplerResponse rsp = (StaplerResponse)Proxy.newProxyInstance(TestCollectionTest.class.getClassLoader(),
+                new Class[]{StaplerResponse.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                if(m.getName().equals("getWriter"))
+                    return new PrintWriter(out);
+                return null;
+            }
+        });
+        c.doChildrenJson(req,rsp);
+        return out.toString();
+    }
+
+    /**
+     * Request with the given query parameters, as name/value pairs.
+     */
+    private static StaplerRequest request(String... params) {
+        final Map<String,String> map = new HashMap<String,String>();
+        for (int i=0; i<params.length; i+=2)
+            map.put(params[i],params[i+1]);
+        return (StaplerRequest)Proxy.newProxyInstance(TestCollectionTest.class.getClassLoader(),
+                new Class[]{StaplerRequest.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                if(m.getName().equals("getParameter"))
+                    return map.get(args[0]);
+                throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    private Suite parse(String xml) throws Exception {
+        Report r = new Report(null) {
+            @Override
+            protected boolean considersTestAsTestObject() {
+                return false;
+            }
+        };
+        r.add(new InputSource(new StringReader(xml)));
+        return r.get("s");
+    }
+}